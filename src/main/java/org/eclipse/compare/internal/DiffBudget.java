@@ -0,0 +1,68 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.internal;
+
+/**
+ * The time and edit distance one comparison may spend, as configured in
+ * {@link LCSSettings}.
+ * <p>
+ * The engines ask the budget before every step of their search. Once it is
+ * exhausted it stays exhausted, the engines finish with whole changed blocks
+ * for everything they did not resolve yet, and the settings are flagged as
+ * approximate.
+ */
+public class DiffBudget {
+
+    private final LCSSettings settings;
+
+    private final int maxEditDistance;
+
+    private final boolean hasDeadline;
+
+    /** in terms of System.nanoTime() */
+    private final long deadline;
+
+    private volatile boolean exhausted = false;
+
+    /**
+     * Starts the budget of one comparison, the time limit counts from now.
+     */
+    public DiffBudget(LCSSettings settings) {
+        this.settings = settings;
+        maxEditDistance = settings.getMaxEditDistance();
+        hasDeadline = settings.getTimeLimit() > 0;
+        deadline = System.nanoTime() + settings.getTimeLimit() * 1000000L;
+    }
+
+    /**
+     * Returns whether the time is up or the search reached more than the
+     * maximum number of edits. Marks the settings approximate the first time
+     * it returns true.
+     *
+     * @param edits
+     *                the edit distance the current search has reached
+     */
+    public boolean isExhausted(int edits) {
+        if (exhausted)
+            return true;
+        if (edits > maxEditDistance || hasDeadline
+                && System.nanoTime() - deadline > 0) {
+            exhausted = true;
+            settings.setApproximate(true);
+        }
+        return exhausted;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.internal;
+
+/**
+ * The algorithms <code>RangeDifferencer</code> can use to compute the
+ * differences between two range comparators.
+ *
+ * @see LCSSettings#setEngine(DiffEngine)
+ */
+public enum DiffEngine {
+
+    /**
+     * Miller and Myers' O(ND) differencer. Keeps the whole edit script in
+     * memory, which is O(D^2).
+     */
+    MYERS,
+
+    /**
+     * Myers' longest common subsequence with the run time bound by
+     * {@link LCSSettings#getTooLong()} and {@link LCSSettings#getPowLimit()}.
+     * The result is not necessarily minimal.
+     */
+    GREEDY,
+
+    /**
+     * Myers' divide and conquer algorithm around the middle snake. Computes a
+     * minimal edit script like {@link #MYERS} in O(N + M) memory.
+     */
+    LINEAR_MYERS,
+
+    /**
+     * Histogram diff: anchors on the longest common run through the rarest
+     * token and recurses around it, falling back to {@link #LINEAR_MYERS}
+     * where only frequent tokens are shared. Not necessarily minimal, but
+     * faster on long documents and keeps moved or rewritten paragraphs in
+     * whole hunks. Needs comparators sharing a symbol table.
+     */
+    HISTOGRAM,
+
+    /**
+     * Trims the common prefix and suffix and searches only a band of
+     * diagonals around the main diagonal, which is widened when the edit
+     * script does not fit. Minimal, and near-linear for revisions that differ
+     * in a few places.
+     */
+    BANDED,
+
+    /**
+     * Hunt and Szymanski's match list algorithm, O((R + M) log N) for R pairs
+     * of matching tokens. Minimal, and fast on mostly rewritten documents
+     * that share few tokens. {@link #MYERS} switches to it by itself when the
+     * matches are sparse. Needs comparators sharing a symbol table.
+     */
+    HUNT_SZYMANSKI,
+
+    /**
+     * Chooses one of the engines above for every comparison from the range
+     * counts, the common prefix and suffix and a sampled match density, and
+     * records the choice with {@link LCSSettings#getSelectedEngine()} and
+     * {@link LCSSettings#getSelectionReason()}. Any other engine set in the
+     * settings overrides the choice. Not the default: it may choose an
+     * engine that finds other differences than {@link #MYERS}, and
+     * approximate ones with {@link #GREEDY} for long, dissimilar inputs.
+     */
+    AUTO;
+
+}
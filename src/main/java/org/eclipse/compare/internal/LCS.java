@@ -10,6 +10,11 @@
  *******************************************************************************/
 package org.eclipse.compare.internal;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
 
@@ -24,6 +29,20 @@ public abstract class LCS {
 
     private int length;
 
+    private DiffBudget budget;
+
+    // the pool sub-problems are forked in, null to recurse sequentially
+    private ForkJoinPool pool;
+
+    // the minimal size (N + M) of a sub-problem that is forked
+    private int forkThreshold;
+
+    // checked for cancellation by the forked sub-problems
+    private SubMonitor monitor;
+
+    // the work done by forked sub-problems, not reported to the monitor yet
+    private final AtomicInteger forkedWork = new AtomicInteger();
+
     /**
      * Myers' algorithm for longest common subsequence. O((M + N)D) worst case
      * time, O(M + N + D^2) expected time, O(M + N) space
@@ -34,6 +53,11 @@ public abstract class LCS {
      * very long and a very short sequence, also bound the running time to (N +
      * M)^1.5 when both sequences are very long.
      * 
+     * If the settings have a <code>ForkJoinPool</code>, the independent
+     * sub-problems on both sides of a middle snake are computed concurrently
+     * once they are at least {@link LCSSettings#getForkThreshold()} long.
+     * Their work is reported by the calling thread along with its own.
+     * 
      * After this method is called, the longest common subsequence is available
      * by calling getResult() where result[0] is composed of entries from l1 and
      * result[1] is composed of entries from l2
@@ -42,6 +66,21 @@ public abstract class LCS {
      */
     public void longestCommonSubsequence(SubMonitor subMonitor,
             LCSSettings settings) {
+        longestCommonSubsequence(subMonitor, settings, new DiffBudget(settings));
+    }
+
+    /**
+     * Like {@link #longestCommonSubsequence(SubMonitor, LCSSettings)}, but
+     * stops searching once the budget is exhausted. The parts that were not
+     * resolved by then are left out of the common subsequence.
+     */
+    public void longestCommonSubsequence(SubMonitor subMonitor,
+            LCSSettings settings, DiffBudget budget) {
+        this.budget = budget;
+        this.pool = settings.getForkJoinPool();
+        this.forkThreshold = settings.getForkThreshold();
+        this.monitor = subMonitor;
+        forkedWork.set(0);
         int length1 = getLength1();
         int length2 = getLength2();
         if (length1 == 0 || length2 == 0) {
@@ -83,13 +122,28 @@ public abstract class LCS {
             worked(subMonitor, 1);
         }
 
-        length = forwardBound
-        + length1
-        - backBoundL1
-        - 1
-        + lcs_rec(forwardBound, backBoundL1, forwardBound, backBoundL2,
-                new int[2][length1 + length2 + 1], new int[3],
-                subMonitor);
+        int common = forwardBound + length1 - backBoundL1 - 1;
+        if (isForked(forwardBound, backBoundL1, forwardBound, backBoundL2)) {
+            SubProblem task = new SubProblem(forwardBound, backBoundL1,
+                    forwardBound, backBoundL2);
+            length = common
+            + (ForkJoinTask.inForkJoinPool() ? task.invoke().intValue()
+                    : pool.invoke(task).intValue());
+            worked(subMonitor, 0);
+            return;
+        }
+
+        ScratchBuffers buffers = ScratchBuffers.get();
+        int[][] V = new int[][] { buffers.acquire(length1 + length2 + 1),
+                buffers.acquire(length1 + length2 + 1) };
+        try {
+            length = common
+            + lcs_rec(forwardBound, backBoundL1, forwardBound, backBoundL2,
+                    V, new int[3], subMonitor);
+        } finally {
+            buffers.release(V[0]);
+            buffers.release(V[1]);
+        }
 
     }
 
@@ -111,13 +165,15 @@ public abstract class LCS {
      * @param topl2
      *                Index in the 2nd sequence to end on (inclusive)
      * @param V
-     *                should be allocated as int[2][l1.length + l2.length + 1],
+     *                should be allocated as int[2][at least l1.length + l2.length + 1],
      *                used to store furthest reaching D-paths
      * @param snake
      *                should be allocated as int[3], used to store the beginning
      *                x, y coordinates and the length of the latest snake
      *                traversed
      * @param subMonitor
+     *                the monitor to report the work to, <code>null</code> in
+     *                forked sub-problems
      * @param lcs
      *                should be allocated as TextLine[2][l1.length], used to
      *                store the common points found to be part of the LCS where
@@ -134,6 +190,11 @@ public abstract class LCS {
             return 0;
         }
 
+        // out of budget, the whole range is reported as changed
+        if (budget.isExhausted(0)) {
+            return 0;
+        }
+
         int d = find_middle_snake(bottoml1, topl1, bottoml2, topl2, V, snake);
         // System.out.println(snake[0] + " " + snake[1] + " " + snake[2]);
 
@@ -150,6 +211,19 @@ public abstract class LCS {
         }
 
         if (d > 1) {
+            if (ForkJoinTask.inForkJoinPool()
+                    && isForked(bottoml1, startx - 1, bottoml2, starty - 1)) {
+                // the sub-problems write to disjoint slots of the lcs, so the
+                // first one can run concurrently without locking
+                SubProblem before = new SubProblem(bottoml1, startx - 1,
+                        bottoml2, starty - 1);
+                before.fork();
+                int after = lcs_rec(startx + len, topl1, starty + len, topl2,
+                        V, snake, subMonitor);
+                int result = len + before.join().intValue() + after;
+                worked(subMonitor, 0);
+                return result;
+            }
             return len
             + lcs_rec(bottoml1, startx - 1, bottoml2, starty - 1, V,
                     snake, subMonitor)
@@ -172,10 +246,64 @@ public abstract class LCS {
         return len;
     }
 
+    /*
+     * Reports work to the monitor, or keeps it for the thread that reports
+     * to the monitor if called from a forked sub-problem.
+     */
     private void worked(SubMonitor subMonitor, int work) {
-        if (subMonitor.isCanceled())
+        if (monitor.isCanceled())
             throw new OperationCanceledException();
-        subMonitor.worked(work);
+        if (subMonitor == null) {
+            forkedWork.addAndGet(work);
+            return;
+        }
+        work += forkedWork.getAndSet(0);
+        if (work > 0)
+            subMonitor.worked(work);
+    }
+
+    /*
+     * Whether l1[bottoml1..topl1] and l2[bottoml2..topl2] are long enough to
+     * be computed as a task of their own.
+     */
+    private boolean isForked(int bottoml1, int topl1, int bottoml2, int topl2) {
+        return pool != null
+                && (topl1 - bottoml1 + 1) + (topl2 - bottoml2 + 1) >= forkThreshold;
+    }
+
+    /**
+     * The LCS of l1[bottoml1..topl1] and l2[bottoml2..topl2] as a fork-join
+     * task, with furthest reaching D-paths of its own. Its work is counted
+     * for the thread that reports to the monitor, and cancellation is
+     * checked.
+     */
+    private final class SubProblem extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int bottoml1, topl1, bottoml2, topl2;
+
+        SubProblem(int bottoml1, int topl1, int bottoml2, int topl2) {
+            this.bottoml1 = bottoml1;
+            this.topl1 = topl1;
+            this.bottoml2 = bottoml2;
+            this.topl2 = topl2;
+        }
+
+        @Override
+        protected Integer compute() {
+            int size = (topl1 - bottoml1 + 1) + (topl2 - bottoml2 + 1) + 3;
+            ScratchBuffers buffers = ScratchBuffers.get();
+            int[][] V = new int[][] { buffers.acquire(size),
+                    buffers.acquire(size) };
+            try {
+                return Integer.valueOf(lcs_rec(bottoml1, topl1, bottoml2,
+                        topl2, V, new int[3], null));
+            } finally {
+                buffers.release(V[0]);
+                buffers.release(V[1]);
+            }
+        }
     }
 
     /**
@@ -197,7 +325,7 @@ public abstract class LCS {
      * @param topl2
      *                Index in the 2nd sequence to end on (inclusive)
      * @param V
-     *                should be allocated as int[2][l1.length + l2.length + 1],
+     *                should be allocated as int[2][at least l1.length + l2.length + 1],
      *                used to store furthest reaching D-paths
      * @param snake
      *                should be allocated as int[3], used to store the beginning
@@ -246,8 +374,16 @@ public abstract class LCS {
 
         V[0][limit + 1] = 0;
         V[1][limit - 1] = N;
+        // the last d for which all furthest reaching paths were computed
+        int steps = limit;
         for (int d = 0; d <= limit; d++) {
 
+            // keep at least one step, so every split makes progress
+            if (d > 1 && budget.isExhausted(2 * d)) {
+                steps = d - 1;
+                break;
+            }
+
             int start_diag = Math.max(value_to_add_forward + start_forward, -d);
             int end_diag = Math.min(end_forward, d);
             value_to_add_forward = 1 - value_to_add_forward;
@@ -269,11 +405,12 @@ public abstract class LCS {
                 snake[2] = 0;
                 // System.out.println("1 x: " + x + " y: " + y + " k: " + k + "
                 // d: " + d );
-                while (x < N && y < M
-                        && isRangeEqual(x + bottoml1, y + bottoml2)) {
-                    x++;
-                    y++;
-                    snake[2]++;
+                if (x < N && y < M) {
+                    int length = forwardSnake(x + bottoml1, y + bottoml2, Math
+                            .min(N - x, M - y));
+                    x += length;
+                    y += length;
+                    snake[2] += length;
                 }
                 V[0][limit + k] = x;
                 // System.out.println(x + " " + V[1][limit+k -delta] + " " + k +
@@ -345,7 +482,7 @@ public abstract class LCS {
          * there.
          */
 
-        int[] most_progress = findMostProgress(M, N, limit, V);
+        int[] most_progress = findMostProgress(M, N, limit, steps, V);
 
         snake[0] = bottoml1 + most_progress[0];
         snake[1] = bottoml2 + most_progress[1];
@@ -371,6 +508,8 @@ public abstract class LCS {
      *                the length of the 2nd sequence for which LCS is being
      *                computed
      * @param limit
+     *                the offset of diagonal 0 in V
+     * @param steps
      *                the number of steps made in an attempt to find the LCS
      *                from the front and back
      * @param V
@@ -382,26 +521,27 @@ public abstract class LCS {
      *         in the diagonal with the most progress and result[2] is the
      *         amount of progress made in that diagonal
      */
-    private static int[] findMostProgress(int M, int N, int limit, int[][] V) {
+    private static int[] findMostProgress(int M, int N, int limit, int steps,
+            int[][] V) {
         int delta = N - M;
 
         int forward_start_diag;
-        if ((M & 1) == (limit & 1)) {
-            forward_start_diag = Math.max(-M, -limit);
+        if ((M & 1) == (steps & 1)) {
+            forward_start_diag = Math.max(-M, -steps);
         } else {
-            forward_start_diag = Math.max(1 - M, -limit);
+            forward_start_diag = Math.max(1 - M, -steps);
         }
 
-        int forward_end_diag = Math.min(N, limit);
+        int forward_end_diag = Math.min(N, steps);
 
         int backward_start_diag;
-        if ((N & 1) == (limit & 1)) {
-            backward_start_diag = Math.max(-N, -limit);
+        if ((N & 1) == (steps & 1)) {
+            backward_start_diag = Math.max(-N, -steps);
         } else {
-            backward_start_diag = Math.max(1 - N, -limit);
+            backward_start_diag = Math.max(1 - N, -steps);
         }
 
-        int backward_end_diag = Math.min(M, limit);
+        int backward_end_diag = Math.min(M, steps);
 
         int[][] max_progress = new int[Math.max(forward_end_diag
                 - forward_start_diag, backward_end_diag - backward_start_diag) / 2 + 1][3];
@@ -467,6 +607,17 @@ public abstract class LCS {
 
     protected abstract boolean isRangeEqual(int i1, int i2);
 
+    /**
+     * Returns the number of equal ranges from i1 and i2 on, at most max.
+     * Subclasses that compare interned symbols can use {@link Snakes}.
+     */
+    protected int forwardSnake(int i1, int i2, int max) {
+        int length = 0;
+        while (length < max && isRangeEqual(i1 + length, i2 + length))
+            length++;
+        return length;
+    }
+
     protected abstract void setLcs(int sl1, int sl2);
 
     protected abstract void initializeLcs(int lcsLength);
@@ -15,6 +15,9 @@
  */
 package org.eclipse.compare.internal;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
 public class LCSSettings {
 
     // the value of N*M when to start binding the run time
@@ -22,7 +25,36 @@ public class LCSSettings {
 
     private double powLimit = 1.5;
 
-    private boolean useGreedyMethod = false;
+    private DiffEngine engine = DiffEngine.MYERS;
+
+    // when set, long comparisons are split at anchors and run in this pool
+    private ForkJoinPool forkJoinPool = null;
+
+    // when set, the ancestor to left script of a three-way comparison runs here
+    private Executor executor = null;
+
+    // the minimal number of ranges of a segment that is diffed on its own
+    private int parallelThreshold = 4096;
+
+    // the minimal size (N + M) of an LCS sub-problem that is forked
+    private int forkThreshold = 4096;
+
+    // the number of ranges from which long identical blocks are matched first
+    private int blockMatchThreshold = 1 << 18;
+
+    // the time a two-way comparison may take in milliseconds, 0 for no limit
+    private long timeLimit = 0;
+
+    // the maximum edit distance an engine searches for
+    private int maxEditDistance = Integer.MAX_VALUE;
+
+    // set when a comparison ran out of budget and returned a coarser result
+    private volatile boolean approximate = false;
+
+    // the engine AUTO chose for the last comparison, and why
+    private volatile DiffEngine selectedEngine = null;
+
+    private volatile String selectionReason = null;
 
     // the value of N*M when to start binding the run time
     public double getTooLong() {
@@ -43,11 +75,163 @@ public class LCSSettings {
     }
 
     public boolean isUseGreedyMethod() {
-        return useGreedyMethod;
+        return engine == DiffEngine.GREEDY;
     }
 
+    /**
+     * Switches between {@link DiffEngine#GREEDY} and {@link DiffEngine#MYERS}.
+     */
     public void setUseGreedyMethod(boolean useGreedyMethod) {
-        this.useGreedyMethod = useGreedyMethod;
+        this.engine = useGreedyMethod ? DiffEngine.GREEDY : DiffEngine.MYERS;
+    }
+
+    public DiffEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(DiffEngine engine) {
+        this.engine = engine;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    /**
+     * Enables the parallel mode: the sequences are split at unique matching
+     * anchors and the segments are diffed concurrently in the given pool.
+     * <code>null</code> (the default) diffs on the calling thread.
+     * <p>
+     * The mode is opt-in because the differences are valid, but not always
+     * the same as without a pool: a minimal script need not pass through the
+     * anchors, so the stitched one can have more edits.
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Returns the executor that computes the script from the ancestor to left
+     * of a three-way comparison while the calling thread computes the one to
+     * right: the one set, or else the <code>ForkJoinPool</code>, or
+     * <code>null</code> to compute both on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : forkJoinPool;
+    }
+
+    /**
+     * Sets the executor of the ancestor to left script of three-way
+     * comparisons, <code>null</code> (the default) to use the
+     * <code>ForkJoinPool</code>, if any.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the minimal number of ranges of a segment when the sequences are
+     * cut at anchors, see {@link #setForkJoinPool(ForkJoinPool)}. The greedy
+     * method forks its sub-problems from another size, see
+     * {@link #setForkThreshold(int)}.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getForkThreshold() {
+        return forkThreshold;
+    }
+
+    /**
+     * Sets the minimal size, the number of ranges on both sides together, of
+     * the sub-problems on both sides of a middle snake that the greedy method
+     * computes as tasks of their own in the <code>ForkJoinPool</code>.
+     */
+    public void setForkThreshold(int forkThreshold) {
+        this.forkThreshold = forkThreshold;
+    }
+
+    public int getBlockMatchThreshold() {
+        return blockMatchThreshold;
+    }
+
+    /**
+     * Comparisons of at least this many ranges on both sides together first
+     * pin long identical blocks found by a rolling hash, and run the engine
+     * only on the gaps between them. The result is then not necessarily
+     * minimal. <code>Integer.MAX_VALUE</code> turns the pre-pass off.
+     */
+    public void setBlockMatchThreshold(int blockMatchThreshold) {
+        this.blockMatchThreshold = blockMatchThreshold;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Limits the time of every two-way comparison, a three-way comparison
+     * runs two of them. When the time is up, the differences that are not
+     * resolved yet are reported as whole changed blocks and the settings are
+     * flagged {@link #isApproximate() approximate}.
+     * 
+     * @param timeLimit
+     *                in milliseconds, 0 for no limit
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public int getMaxEditDistance() {
+        return maxEditDistance;
+    }
+
+    /**
+     * Limits the edit distance the engines search for. Sequences further apart
+     * are reported with coarse changed blocks like on a time out.
+     */
+    public void setMaxEditDistance(int maxEditDistance) {
+        this.maxEditDistance = maxEditDistance;
+    }
+
+    /**
+     * Returns whether a comparison with these settings ran out of its budget
+     * since the flag was last cleared. The differences are valid but not
+     * minimal then.
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
+    /**
+     * Returns the engine {@link DiffEngine#AUTO} chose for the last
+     * comparison with these settings, <code>null</code> if it did not choose
+     * yet. Long comparisons that are split choose for every segment.
+     */
+    public DiffEngine getSelectedEngine() {
+        return selectedEngine;
+    }
+
+    /**
+     * Returns why {@link #getSelectedEngine()} was chosen.
+     */
+    public String getSelectionReason() {
+        return selectionReason;
+    }
+
+    public void recordSelection(DiffEngine selectedEngine,
+            String selectionReason) {
+        this.selectedEngine = selectedEngine;
+        this.selectionReason = selectionReason;
     }
 
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.internal;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A per-thread pool of the <code>int[]</code> scratch space of the LCS
+ * engines, so that diffing many documents does not allocate the same tables
+ * over and over.
+ * <p>
+ * Buffers come in size classes of powers of two. A buffer that is released
+ * is kept for the next request of its class, unless the thread already
+ * retains {@link #getMaxRetainedInts()} ints, in which case it is left to the
+ * garbage collector.
+ * <p>
+ * Kept buffers are only softly reachable, so the garbage collector reclaims
+ * them from idle threads, such as those of an application server or a
+ * <code>ForkJoinPool</code>, before memory runs out. A thread that is done
+ * diffing for a while can release them at once with
+ * <code>ScratchBuffers.get().clear()</code>, and
+ * {@link #setMaxRetainedInts(long)} with 0 turns the pooling off.
+ */
+public final class ScratchBuffers {
+
+    /** the smallest size class, in bits */
+    private static final int MIN_SHIFT = 6;
+
+    /** the largest size class, in bits */
+    private static final int MAX_SHIFT = 30;
+
+    private static volatile long maxRetainedInts = 1 << 18;
+
+    private static final ThreadLocal<ScratchBuffers> BUFFERS = new ThreadLocal<ScratchBuffers>() {
+        @Override
+        protected ScratchBuffers initialValue() {
+            return new ScratchBuffers();
+        }
+    };
+
+    /** free.get(c): the free buffers of length 1 << c */
+    private final List<List<SoftReference<int[]>>> free = new ArrayList<List<SoftReference<int[]>>>(
+            MAX_SHIFT + 1);
+
+    /**
+     * the number of ints in the free buffers, including those the garbage
+     * collector reclaimed since
+     */
+    private long retainedInts = 0;
+
+    private ScratchBuffers() {
+        // one per thread, see get()
+        for (int c = 0; c <= MAX_SHIFT; c++)
+            free.add(new ArrayList<SoftReference<int[]>>());
+    }
+
+    /**
+     * Returns the buffers of the current thread.
+     */
+    public static ScratchBuffers get() {
+        return BUFFERS.get();
+    }
+
+    /**
+     * Returns the number of ints each thread keeps at most in free buffers,
+     * by default 2<sup>18</sup>, which is 1 MB.
+     */
+    public static long getMaxRetainedInts() {
+        return maxRetainedInts;
+    }
+
+    /**
+     * Sets the number of ints each thread keeps at most in free buffers, 0
+     * to keep none. Applies to buffers released from now on.
+     */
+    public static void setMaxRetainedInts(long maxRetainedInts) {
+        ScratchBuffers.maxRetainedInts = maxRetainedInts;
+    }
+
+    /**
+     * Returns a buffer of at least <code>length</code> ints, of which the
+     * first <code>length</code> are 0.
+     */
+    public int[] acquire(int length) {
+        int sizeClass = sizeClass(length);
+        if (sizeClass > MAX_SHIFT)
+            return new int[length];
+        List<SoftReference<int[]>> buffers = free.get(sizeClass);
+        while (!buffers.isEmpty()) {
+            int[] buffer = buffers.remove(buffers.size() - 1).get();
+            retainedInts -= 1 << sizeClass;
+            if (buffer != null) {
+                Arrays.fill(buffer, 0, length, 0);
+                return buffer;
+            }
+        }
+        return new int[1 << sizeClass];
+    }
+
+    /**
+     * Gives a buffer obtained from {@link #acquire(int)} back. The caller
+     * must not use it anymore.
+     */
+    public void release(int[] buffer) {
+        if (buffer == null)
+            return;
+        int sizeClass = sizeClass(buffer.length);
+        if (sizeClass > MAX_SHIFT || buffer.length != 1 << sizeClass)
+            return;
+        if (retainedInts + buffer.length > maxRetainedInts) {
+            dropReclaimed();
+            if (retainedInts + buffer.length > maxRetainedInts)
+                return;
+        }
+        free.get(sizeClass).add(new SoftReference<int[]>(buffer));
+        retainedInts += buffer.length;
+    }
+
+    /*
+     * Forgets the buffers the garbage collector reclaimed.
+     */
+    private void dropReclaimed() {
+        retainedInts = 0;
+        for (int c = 0; c <= MAX_SHIFT; c++) {
+            List<SoftReference<int[]>> buffers = free.get(c);
+            for (int i = buffers.size() - 1; i >= 0; i--) {
+                if (buffers.get(i).get() == null)
+                    buffers.remove(i);
+            }
+            retainedInts += (long) buffers.size() << c;
+        }
+    }
+
+    /**
+     * Returns the number of ints this thread keeps in free buffers.
+     */
+    public long getRetainedInts() {
+        return retainedInts;
+    }
+
+    /**
+     * Drops all free buffers of this thread.
+     */
+    public void clear() {
+        for (int c = 0; c <= MAX_SHIFT; c++)
+            free.get(c).clear();
+        retainedInts = 0;
+    }
+
+    /*
+     * The smallest size class of buffers of at least the given length.
+     */
+    private static int sizeClass(int length) {
+        if (length <= 1 << MIN_SHIFT)
+            return MIN_SHIFT;
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Follows snakes, runs of equal entities along a diagonal, over the interned
+ * symbols of two sequences.
+ * <p>
+ * On Java 9 and later the runs are compared with
+ * <code>Arrays.mismatch(int[], int, int, int[], int, int)</code>, which the
+ * JIT compiles to vector instructions, so long unchanged stretches are
+ * crossed several symbols per instruction. The method is looked up once; on
+ * older runtimes a plain loop is used.
+ */
+public final class Snakes {
+
+    /**
+     * the number of symbols compared one by one first: most snakes are short
+     * and not worth the call
+     */
+    private static final int SCALAR_PREFIX = 8;
+
+    /** Arrays.mismatch over int ranges, or null if not available */
+    private static final MethodHandle MISMATCH = findMismatch();
+
+    private Snakes() {
+        // static helpers only
+    }
+
+    private static MethodHandle findMismatch() {
+        try {
+            return MethodHandles.publicLookup().findStatic(
+                    Arrays.class,
+                    "mismatch",
+                    MethodType.methodType(int.class, int[].class, int.class,
+                            int.class, int[].class, int.class, int.class));
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether snakes are compared with vector instructions on this
+     * runtime.
+     */
+    public static boolean isVectorized() {
+        return MISMATCH != null;
+    }
+
+    /**
+     * Returns the length of the snake that starts at a[aFrom] and b[bFrom]:
+     * the number of equal symbols before the first difference or the end
+     * <code>aTo</code> or <code>bTo</code> (exclusive) of either sequence.
+     */
+    public static int forward(int[] a, int aFrom, int aTo, int[] b, int bFrom,
+            int bTo) {
+        int max = Math.min(aTo - aFrom, bTo - bFrom);
+        if (max <= 0)
+            return 0;
+        int n = 0;
+        while (n < max && n < SCALAR_PREFIX) {
+            if (a[aFrom + n] != b[bFrom + n])
+                return n;
+            n++;
+        }
+        if (n == max)
+            return n;
+        if (MISMATCH == null) {
+            while (n < max && a[aFrom + n] == b[bFrom + n])
+                n++;
+            return n;
+        }
+        int mismatch;
+        try {
+            mismatch = (int) MISMATCH.invokeExact(a, aFrom + n, aFrom + max,
+                    b, bFrom + n, bFrom + max);
+        } catch (Throwable e) {
+            // the ranges are within bounds, so this does not happen
+            throw new IllegalStateException(e);
+        }
+        return mismatch < 0 ? max : n + mismatch;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.Snakes;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Band-limited O(ND) differencer for near-identical sequences, after E.
+ * Ukkonen, <it>Algorithms for approximate string matching,</it> Information
+ * and Control, Vol. 64, 1985.
+ * <p>
+ * The common prefix and suffix are trimmed first. The forward search of Myers'
+ * algorithm is then restricted to the diagonals within <code>width</code> of
+ * the main diagonals. Every edit script of at most |N - M| + 2 * width edits
+ * lies inside that band, so a script found within that cost is minimal;
+ * otherwise the band is doubled and the search is repeated. Memory and time
+ * thus depend on the number of edits instead of on the length of the
+ * sequences.
+ * <p>
+ * The search keeps one vector per edit, so comparisons whose trace would get
+ * too large are left to <code>LinearDifferencer</code>.
+ */
+/* package */class BandedDifferencer {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    /** the band width of the first search */
+    private static final int INITIAL_WIDTH = 8;
+
+    /** the maximal number of entries of the trace */
+    private static final long MAX_TRACE_SIZE = 1 << 22;
+
+    /** marks a diagonal that is not reachable with the current edits */
+    private static final int UNREACHABLE = -1;
+
+    private final IRangeComparator right;
+
+    private final IRangeComparator left;
+
+    private final int[] rightSymbols;
+
+    private final int[] leftSymbols;
+
+    /** start of the region both sequences differ in */
+    private final int offset;
+
+    /** length of the region in right and left */
+    private final int n, m;
+
+    /**
+     * trace[d][i]: furthest x reached with d edits on diagonal low(d) + 2i,
+     * relative to offset
+     */
+    private int[][] trace;
+
+    /** lowest diagonal of every row of the trace */
+    private int[] traceLow;
+
+    public static RangeDifference[] findDifferences(IProgressMonitor pm,
+            DiffBudget budget, IRangeComparator left, IRangeComparator right) {
+
+        // assert that both IRangeComparators are of the same class
+        Assert.isTrue(right.getClass().equals(left.getClass()));
+
+        int[] rightSymbols = SymbolTable.symbolsOf(right, left);
+        int[] leftSymbols = SymbolTable.symbolsOf(left, right);
+        int rightSize = right.getRangeCount();
+        int leftSize = left.getRangeCount();
+
+        // trim the common prefix and suffix
+        int prefix = 0;
+        while (prefix < rightSize
+                && prefix < leftSize
+                && SymbolTable.rangesEqual(rightSymbols, right, prefix,
+                        leftSymbols, left, prefix))
+            prefix++;
+        int rightEnd = rightSize;
+        int leftEnd = leftSize;
+        while (rightEnd > prefix
+                && leftEnd > prefix
+                && SymbolTable.rangesEqual(rightSymbols, right, rightEnd - 1,
+                        leftSymbols, left, leftEnd - 1)) {
+            rightEnd--;
+            leftEnd--;
+        }
+
+        if (rightEnd == prefix && leftEnd == prefix)
+            return EMPTY_RESULT;
+        if (rightEnd == prefix || leftEnd == prefix)
+            return new RangeDifference[] { new RangeDifference(
+                    RangeDifference.CHANGE, prefix, rightEnd - prefix, prefix,
+                    leftEnd - prefix) };
+
+        BandedDifferencer differencer = new BandedDifferencer(left, right,
+                leftSymbols, rightSymbols, prefix, rightEnd - prefix, leftEnd
+                        - prefix);
+        for (int width = INITIAL_WIDTH;; width *= 2) {
+            if (differencer.traceSize(width) > MAX_TRACE_SIZE)
+                return LinearDifferencer.findDifferences(pm, budget, left,
+                        right);
+            RangeDifference[] result = differencer.compare(pm, budget, width);
+            if (result != null)
+                return result;
+        }
+    }
+
+    private BandedDifferencer(IRangeComparator left, IRangeComparator right,
+            int[] leftSymbols, int[] rightSymbols, int offset, int n, int m) {
+        this.left = left;
+        this.right = right;
+        this.leftSymbols = leftSymbols;
+        this.rightSymbols = rightSymbols;
+        this.offset = offset;
+        this.n = n;
+        this.m = m;
+    }
+
+    /*
+     * The number of edits up to which a search with the given width is
+     * minimal.
+     */
+    private int maxEdits(int width) {
+        if (isFullWidth(width))
+            return n + m;
+        return Math.abs(n - m) + 2 * width;
+    }
+
+    private boolean isFullWidth(int width) {
+        return Math.min(0, n - m) - width <= -m
+                && Math.max(0, n - m) + width >= n;
+    }
+
+    /*
+     * An upper bound of the size of the trace of a search with the given
+     * width.
+     */
+    private long traceSize(int width) {
+        long edits = maxEdits(width) + 1;
+        long diagonals = Math.min(n + m, Math.abs(n - m) + 2 * width) / 2 + 1;
+        return edits * diagonals;
+    }
+
+    /*
+     * Searches the band of the given width. Returns the differences, an empty
+     * array if canceled, or null if the band is too narrow.
+     */
+    private RangeDifference[] compare(IProgressMonitor pm, DiffBudget budget,
+            int width) {
+        int delta = n - m;
+        int bandLow = Math.max(-m, Math.min(0, delta) - width);
+        int bandHigh = Math.min(n, Math.max(0, delta) + width);
+        int maxEdits = maxEdits(width);
+
+        trace = new int[maxEdits + 1][];
+        traceLow = new int[maxEdits + 1];
+
+        for (int d = 0; d <= maxEdits; d++) {
+            if (pm != null) {
+                if (pm.isCanceled())
+                    return EMPTY_RESULT;
+                pm.worked(1);
+            }
+            if (d > 0) {
+                if (right.skipRangeComparison(d, n + m, left))
+                    return EMPTY_RESULT;
+                if (budget.isExhausted(d))
+                    return createApproximateRanges(d - 1);
+            }
+
+            // the diagonals k with k + d even within the band
+            int low = Math.max(-d, bandLow);
+            if (((low + d) & 1) != 0)
+                low++;
+            int high = Math.min(d, bandHigh);
+            if (((high + d) & 1) != 0)
+                high--;
+            int[] row = new int[(high - low) / 2 + 1];
+            trace[d] = row;
+            traceLow[d] = low;
+
+            for (int k = low; k <= high; k += 2) {
+                int x = d == 0 ? 0 : start(d, k);
+                if (x != UNREACHABLE) {
+                    int y = x - k;
+                    int snake = snake(x, y);
+                    x += snake;
+                    y += snake;
+                    if (x == n && y == m)
+                        return createDifferencesRanges(d, k);
+                }
+                row[(k - low) / 2] = x;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns the x on diagonal k after the edit d, before following the
+     * snake, or UNREACHABLE.
+     */
+    private int start(int d, int k) {
+        if (isInsertion(d, k))
+            return insertionStart(d, k);
+        return deletionStart(d, k);
+    }
+
+    /*
+     * Returns whether the furthest path with d edits on diagonal k ends with
+     * an insertion from diagonal k + 1 rather than a deletion from k - 1.
+     */
+    private boolean isInsertion(int d, int k) {
+        int deletion = deletionStart(d, k);
+        if (deletion == UNREACHABLE)
+            return true;
+        int insertion = insertionStart(d, k);
+        return insertion != UNREACHABLE && insertion >= deletion;
+    }
+
+    /*
+     * The x after inserting the next left entity on the path of diagonal
+     * k + 1, or UNREACHABLE.
+     */
+    private int insertionStart(int d, int k) {
+        int x = reached(d - 1, k + 1);
+        if (x == UNREACHABLE || x - (k + 1) >= m)
+            return UNREACHABLE;
+        return x;
+    }
+
+    /*
+     * The x after deleting the next right entity on the path of diagonal
+     * k - 1, or UNREACHABLE.
+     */
+    private int deletionStart(int d, int k) {
+        int x = reached(d - 1, k - 1);
+        if (x == UNREACHABLE || x >= n)
+            return UNREACHABLE;
+        return x + 1;
+    }
+
+    /*
+     * Returns the furthest x reached on diagonal k with d edits, or
+     * UNREACHABLE if k was outside the band searched.
+     */
+    private int reached(int d, int k) {
+        int i = k - traceLow[d];
+        if (i < 0 || i / 2 >= trace[d].length)
+            return UNREACHABLE;
+        return trace[d][i / 2];
+    }
+
+    /*
+     * Follows the trace back from diagonal k at edit d and joins the edits
+     * into RangeDifferences.
+     */
+    private List<RangeDifference> backtrack(int d, int k) {
+        List<RangeDifference> result = new ArrayList<RangeDifference>();
+        RangeDifference current = null;
+        for (; d > 0; d--) {
+            int previousX, previousY;
+            int rightLength, leftLength;
+            if (isInsertion(d, k)) {
+                // insertion of left[previousY]
+                previousX = insertionStart(d, k);
+                k++;
+                previousY = previousX - k;
+                rightLength = 0;
+                leftLength = 1;
+            } else {
+                // deletion of right[previousX]
+                previousX = deletionStart(d, k) - 1;
+                k--;
+                previousY = previousX - k;
+                rightLength = 1;
+                leftLength = 0;
+            }
+            if (current != null
+                    && current.fRightStart == previousX + rightLength
+                    && current.fLeftStart == previousY + leftLength) {
+                current.fRightStart = previousX;
+                current.fLeftStart = previousY;
+                current.fRightLength += rightLength;
+                current.fLeftLength += leftLength;
+            } else {
+                current = new RangeDifference(RangeDifference.CHANGE,
+                        previousX, rightLength, previousY, leftLength);
+                result.add(current);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private RangeDifference[] createDifferencesRanges(int d, int k) {
+        return toAbsolute(backtrack(d, k));
+    }
+
+    /*
+     * Keeps the path that got furthest with d edits and reports the rest of
+     * the region as one change.
+     */
+    private RangeDifference[] createApproximateRanges(int d) {
+        int[] row = trace[d];
+        int furthestK = 0;
+        int furthestX = UNREACHABLE;
+        for (int i = 0; i < row.length; i++) {
+            int k = traceLow[d] + 2 * i;
+            if (row[i] != UNREACHABLE
+                    && (furthestX == UNREACHABLE || 2 * row[i] - k > 2
+                            * furthestX - furthestK)) {
+                furthestK = k;
+                furthestX = row[i];
+            }
+        }
+        List<RangeDifference> result = backtrack(d, furthestK);
+        int x = furthestX;
+        int y = furthestX - furthestK;
+        RangeDifference last = result.isEmpty() ? null
+                : result.get(result.size() - 1);
+        if (last != null && last.rightEnd() == x && last.leftEnd() == y) {
+            last.fRightLength += n - x;
+            last.fLeftLength += m - y;
+        } else {
+            result.add(new RangeDifference(RangeDifference.CHANGE, x, n - x,
+                    y, m - y));
+        }
+        return toAbsolute(result);
+    }
+
+    /*
+     * Moves the differences from the region to the whole sequences.
+     */
+    private RangeDifference[] toAbsolute(List<RangeDifference> differences) {
+        RangeDifference[] result = differences.toArray(EMPTY_RESULT);
+        for (int i = 0; i < result.length; i++) {
+            result[i].fRightStart += offset;
+            result[i].fLeftStart += offset;
+        }
+        return result;
+    }
+
+    /*
+     * Returns the number of equal ranges of the region from (x, y) on.
+     */
+    private int snake(int x, int y) {
+        if (rightSymbols != null)
+            return Snakes.forward(rightSymbols, offset + x, offset + n,
+                    leftSymbols, offset + y, offset + m);
+        int length = 0;
+        while (x + length < n && y + length < m
+                && rangesEqual(x + length, y + length))
+            length++;
+        return length;
+    }
+
+    /*
+     * Tests if two ranges of the region are equal
+     */
+    private boolean rangesEqual(int x, int y) {
+        return SymbolTable.rangesEqual(rightSymbols, right, offset + x,
+                leftSymbols, left, offset + y);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.runtime.Assert;
+
+/**
+ * Differencer for short sequences, such as the ancestor chains of a text node
+ * or the leafs of a small subtree, based on the bit-vector LCS of L. Allison
+ * and T. I. Dix, <it>A bit-string longest-common-subsequence algorithm,</it>
+ * Information Processing Letters, Vol. 23, 1986, as refined by H. Hyyro.
+ * <p>
+ * The right sequence, at most <code>MAX_LENGTH</code> entities, is held in
+ * two words. One addition per left entity computes the next column of the LCS
+ * table from the mask of the right entities equal to it, so the whole table
+ * costs O(M) word operations and two small arrays. With a shared
+ * <code>SymbolTable</code> the masks are built once per distinct right symbol,
+ * in O(N + M); otherwise every pair of entities is compared, N * M calls of
+ * <code>rangesEqual</code>.
+ * <p>
+ * The edit script is traced back through the table with the same choices as
+ * <code>OldDifferencer</code>, whose furthest reaching paths follow from the
+ * table: the furthest row on diagonal k with d edits is the last row whose
+ * prefix distance is at most d. The result is therefore exactly the one of
+ * the default engine.
+ */
+/* package */class BitParallelDifferencer {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    /** the longest right sequence that fits in the bit-vectors */
+    static final int MAX_LENGTH = 128;
+
+    /** capacity of the mask table, at least twice MAX_LENGTH */
+    private static final int MASK_TABLE_SIZE = 256;
+
+    private static final int UNDEFINED = -1;
+
+    private final IRangeComparator right;
+
+    private final IRangeComparator left;
+
+    private final int[] rightSymbols;
+
+    private final int[] leftSymbols;
+
+    /** length of the common prefix, which is left out of the table */
+    private final int offset;
+
+    /** lengths of both sequences without the common prefix */
+    private final int n, m;
+
+    /**
+     * low and high word of every column of the LCS table: bit i is cleared if
+     * right[offset + i] extends the LCS of the column
+     */
+    private final long[] low;
+
+    private final long[] high;
+
+    /*
+     * open addressing table of the match masks by right symbol, used with a
+     * shared SymbolTable: the symbol, or -1 for a free slot, and both words
+     */
+    private int[] maskSymbols;
+
+    private long[] maskLow;
+
+    private long[] maskHigh;
+
+    /**
+     * Returns whether both sequences are short enough for this differencer.
+     */
+    static boolean isApplicable(IRangeComparator left, IRangeComparator right) {
+        return right.getRangeCount() <= MAX_LENGTH
+                && left.getRangeCount() <= MAX_LENGTH;
+    }
+
+    public static RangeDifference[] findDifferences(IRangeComparator left,
+            IRangeComparator right) {
+
+        // assert that both IRangeComparators are of the same class
+        Assert.isTrue(right.getClass().equals(left.getClass()));
+
+        BitParallelDifferencer differencer = new BitParallelDifferencer(left,
+                right);
+        return differencer.createDifferencesRanges();
+    }
+
+    private BitParallelDifferencer(IRangeComparator left,
+            IRangeComparator right) {
+        this.left = left;
+        this.right = right;
+        rightSymbols = SymbolTable.symbolsOf(right, left);
+        leftSymbols = SymbolTable.symbolsOf(left, right);
+
+        int rightSize = right.getRangeCount();
+        int leftSize = left.getRangeCount();
+        int prefix = 0;
+        while (prefix < rightSize && prefix < leftSize
+                && rangesEqual(prefix, prefix))
+            prefix++;
+        offset = prefix;
+        n = rightSize - prefix;
+        m = leftSize - prefix;
+
+        if (rightSymbols != null)
+            buildMaskTable();
+        low = new long[m + 1];
+        high = new long[m + 1];
+        long vLow = -1L;
+        long vHigh = -1L;
+        low[0] = vLow;
+        high[0] = vHigh;
+        for (int y = 0; y < m; y++) {
+            // the right entities equal to left[offset + y]
+            long matchLow = 0;
+            long matchHigh = 0;
+            if (rightSymbols != null) {
+                int slot = findSlot(leftSymbols[offset + y]);
+                if (maskSymbols[slot] >= 0) {
+                    matchLow = maskLow[slot];
+                    matchHigh = maskHigh[slot];
+                }
+            } else {
+                for (int x = 0; x < n; x++) {
+                    if (rangesEqual(offset + x, offset + y)) {
+                        if (x < 64)
+                            matchLow |= 1L << x;
+                        else
+                            matchHigh |= 1L << (x - 64);
+                    }
+                }
+            }
+            // V' = (V + U) | (V - U) with U = V & match, over 128 bits
+            long uLow = vLow & matchLow;
+            long uHigh = vHigh & matchHigh;
+            long sumLow = vLow + uLow;
+            long carry = (sumLow ^ Long.MIN_VALUE) < (vLow ^ Long.MIN_VALUE) ? 1
+                    : 0;
+            long sumHigh = vHigh + uHigh + carry;
+            vLow = sumLow | (vLow & ~uLow);
+            vHigh = sumHigh | (vHigh & ~uHigh);
+            low[y + 1] = vLow;
+            high[y + 1] = vHigh;
+        }
+    }
+
+    /*
+     * Sets the bit of every right entity in the mask of its symbol.
+     */
+    private void buildMaskTable() {
+        maskSymbols = new int[MASK_TABLE_SIZE];
+        maskLow = new long[MASK_TABLE_SIZE];
+        maskHigh = new long[MASK_TABLE_SIZE];
+        Arrays.fill(maskSymbols, -1);
+        for (int x = 0; x < n; x++) {
+            int symbol = rightSymbols[offset + x];
+            int slot = findSlot(symbol);
+            maskSymbols[slot] = symbol;
+            if (x < 64)
+                maskLow[slot] |= 1L << x;
+            else
+                maskHigh[slot] |= 1L << (x - 64);
+        }
+    }
+
+    /*
+     * The slot of the given symbol in the mask table, or the free slot where
+     * it belongs.
+     */
+    private int findSlot(int symbol) {
+        int slot = (symbol * 0x9E3779B9) >>> 24;
+        while (maskSymbols[slot] >= 0 && maskSymbols[slot] != symbol)
+            slot = (slot + 1) & (MASK_TABLE_SIZE - 1);
+        return slot;
+    }
+
+    /*
+     * The length of the LCS of right[offset..offset + x) and
+     * left[offset..offset + y).
+     */
+    private int lcs(int x, int y) {
+        int zeros;
+        if (x <= 64) {
+            long mask = x == 64 ? -1L : (1L << x) - 1;
+            zeros = Long.bitCount(~low[y] & mask);
+        } else {
+            long mask = x == 128 ? -1L : (1L << (x - 64)) - 1;
+            zeros = Long.bitCount(~low[y]) + Long.bitCount(~high[y] & mask);
+        }
+        return zeros;
+    }
+
+    /*
+     * The number of edits between right[offset..offset + x) and
+     * left[offset..offset + y).
+     */
+    private int distance(int x, int y) {
+        return x + y - 2 * lcs(x, y);
+    }
+
+    /*
+     * The furthest row reached on diagonal k = y - x with at most d edits, or
+     * UNDEFINED. The distance does not decrease along a diagonal, so this is
+     * the last row within distance d.
+     */
+    private int furthest(int d, int k) {
+        int first = Math.max(0, -k);
+        int last = Math.min(n, m - k);
+        if (first > last || distance(first, first + k) > d)
+            return UNDEFINED;
+        while (first < last) {
+            int middle = (first + last + 1) >>> 1;
+            if (distance(middle, middle + k) <= d)
+                first = middle;
+            else
+                last = middle - 1;
+        }
+        return first;
+    }
+
+    /*
+     * Traces the path of OldDifferencer back from the end and creates its
+     * RangeDifferences.
+     */
+    private RangeDifference[] createDifferencesRanges() {
+        if (n == 0 && m == 0)
+            return EMPTY_RESULT;
+        if (n == 0 || m == 0)
+            return new RangeDifference[] { new RangeDifference(
+                    RangeDifference.CHANGE, offset, n, offset, m) };
+        int d = distance(n, m);
+
+        // the edits from the last to the first, as (insert, row, column) in
+        // the 1-based notation of OldDifferencer
+        boolean[] inserts = new boolean[d];
+        int[] rows = new int[d];
+        int[] columns = new int[d];
+        int k = m - n;
+        for (; d > 0; d--) {
+            int above = k == d ? UNDEFINED : furthest(d - 1, k + 1);
+            int before = k == -d ? UNDEFINED : furthest(d - 1, k - 1);
+            boolean down;
+            if (k == -d)
+                down = true;
+            else if (k == d)
+                down = false;
+            else
+                down = above >= before;
+            int row;
+            if (down) {
+                // deletion of right[row - 1]
+                row = above + 1;
+                inserts[d - 1] = false;
+            } else {
+                // insertion of left[row + k] after right[row - 1]
+                row = before;
+                inserts[d - 1] = true;
+            }
+            rows[d - 1] = offset + row;
+            columns[d - 1] = offset + row + k;
+            k = down ? k + 1 : k - 1;
+        }
+        return createDifferencesRanges(inserts, rows, columns);
+    }
+
+    /*
+     * Coalesces the edits like OldDifferencer.createDifferencesRanges.
+     */
+    private static RangeDifference[] createDifferencesRanges(
+            boolean[] inserts, int[] rows, int[] columns) {
+        List<RangeDifference> result = new ArrayList<RangeDifference>();
+        int i = 0;
+        while (i < inserts.length) {
+            RangeDifference es = new RangeDifference(RangeDifference.CHANGE);
+            if (inserts[i]) {
+                es.fRightStart = rows[i] + 1;
+                es.fLeftStart = columns[i];
+                int row = rows[i];
+                do {
+                    i++;
+                    es.fLeftLength++;
+                } while (i < inserts.length && inserts[i] && rows[i] == row);
+            } else {
+                es.fRightStart = rows[i];
+                es.fLeftStart = columns[i];
+                int lastRow;
+                do {
+                    lastRow = rows[i];
+                    i++;
+                    es.fRightLength++;
+                } while (i < inserts.length && !inserts[i]
+                        && rows[i] == lastRow + 1);
+                if (i < inserts.length && inserts[i] && rows[i] == lastRow) {
+                    int row = rows[i];
+                    do {
+                        i++;
+                        es.fLeftLength++;
+                    } while (i < inserts.length && inserts[i]
+                            && rows[i] == row);
+                }
+                es.fLeftStart++;
+            }
+            es.fRightStart--;
+            es.fLeftStart--;
+            result.add(es);
+        }
+        return result.toArray(EMPTY_RESULT);
+    }
+
+    /*
+     * Tests if two ranges are equal
+     */
+    private boolean rangesEqual(int rightIndex, int leftIndex) {
+        if (rightSymbols != null)
+            return rightSymbols[rightIndex] == leftSymbols[leftIndex];
+        return right.rangesEqual(rightIndex, left, leftIndex);
+    }
+}
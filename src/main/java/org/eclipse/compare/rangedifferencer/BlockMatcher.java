@@ -0,0 +1,264 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.LCSSettings;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Pre-pass for very long comparisons that pins long identical blocks, like
+ * the block matching of rsync.
+ * <p>
+ * The right sequence is cut in blocks of <code>WINDOW</code> symbols whose
+ * hashes are put in a table. A rolling hash of every window of the left
+ * sequence is looked up in it, and every hit that really matches is extended
+ * to a maximal common run. The longest chain of runs that is increasing on
+ * both sides is kept as pinned matches, and the engine of the settings only
+ * compares the gaps between them. The differences are valid but not
+ * necessarily minimal: an edit script that would align a pinned block
+ * differently is not considered.
+ */
+/* package */class BlockMatcher {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    /** the length of the blocks that are hashed, the shortest pinned run */
+    static final int WINDOW = 32;
+
+    /** base of the polynomial rolling hash, modulo 2^64 */
+    private static final long BASE = 0x100000001B3L;
+
+    private final int[] rightSymbols;
+
+    private final int[] leftSymbols;
+
+    /* the pinned runs: right start, left start and length */
+    private int[] runX = new int[64];
+
+    private int[] runY = new int[64];
+
+    private int[] runLength = new int[64];
+
+    private int runs = 0;
+
+    /**
+     * Returns whether the comparison is long enough for the pre-pass, and
+     * both comparators share a symbol table.
+     */
+    static boolean isApplicable(LCSSettings settings, IRangeComparator left,
+            IRangeComparator right) {
+        int total = left.getRangeCount() + right.getRangeCount();
+        return total >= settings.getBlockMatchThreshold()
+                && left.getRangeCount() >= WINDOW
+                && right.getRangeCount() >= WINDOW
+                && SymbolTable.isShared(left, right);
+    }
+
+    public static RangeDifference[] findDifferences(IProgressMonitor pm,
+            LCSSettings settings, DiffBudget budget, IRangeComparator left,
+            IRangeComparator right) {
+        ISymbolComparator leftComparator = (ISymbolComparator) left;
+        ISymbolComparator rightComparator = (ISymbolComparator) right;
+        BlockMatcher matcher = new BlockMatcher(leftComparator.getSymbols(),
+                rightComparator.getSymbols());
+        matcher.findRuns();
+        matcher.keepIncreasingRuns();
+        return matcher.compareGaps(pm, settings, budget, leftComparator,
+                rightComparator);
+    }
+
+    private BlockMatcher(int[] leftSymbols, int[] rightSymbols) {
+        this.leftSymbols = leftSymbols;
+        this.rightSymbols = rightSymbols;
+    }
+
+    /*
+     * Finds the common runs of at least WINDOW symbols that start at a block
+     * of the right sequence, in left order.
+     */
+    private void findRuns() {
+        int n = rightSymbols.length;
+        int m = leftSymbols.length;
+
+        // open addressing table of the block hashes, position + 1 or 0
+        int blocks = n / WINDOW;
+        int capacity = Integer.highestOneBit(Math.max(blocks, 1) * 2) * 2;
+        int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        long[] keys = new long[capacity];
+        int[] values = new int[capacity];
+        for (int x = 0; x + WINDOW <= n; x += WINDOW) {
+            long hash = hash(rightSymbols, x);
+            int slot = slot(hash, shift);
+            while (values[slot] != 0 && keys[slot] != hash)
+                slot = (slot + 1) & (capacity - 1);
+            if (values[slot] == 0) {
+                keys[slot] = hash;
+                values[slot] = x + 1;
+            }
+        }
+
+        long power = 1;
+        for (int i = 1; i < WINDOW; i++)
+            power *= BASE;
+
+        int previousEnd = 0;
+        int y = 0;
+        long hash = hash(leftSymbols, 0);
+        while (true) {
+            int x = lookup(keys, values, hash, shift);
+            if (x >= 0 && equal(x, y, WINDOW)) {
+                // extend the hit to a maximal run, not into the previous one
+                int start = 0;
+                while (y - start > previousEnd && x - start > 0
+                        && rightSymbols[x - start - 1] == leftSymbols[y - start - 1])
+                    start++;
+                int end = WINDOW;
+                while (x + end < n && y + end < m
+                        && rightSymbols[x + end] == leftSymbols[y + end])
+                    end++;
+                addRun(x - start, y - start, start + end);
+                y += end;
+                previousEnd = y;
+                if (y + WINDOW > m)
+                    break;
+                hash = hash(leftSymbols, y);
+            } else {
+                if (y + WINDOW >= m)
+                    break;
+                hash = (hash - leftSymbols[y] * power) * BASE
+                        + leftSymbols[y + WINDOW];
+                y++;
+            }
+        }
+    }
+
+    private static long hash(int[] symbols, int start) {
+        long hash = 0;
+        for (int i = start; i < start + WINDOW; i++)
+            hash = hash * BASE + symbols[i];
+        return hash;
+    }
+
+    private static int slot(long hash, int shift) {
+        return (int) ((hash ^ (hash >>> 31)) * 0x9E3779B97F4A7C15L >>> shift);
+    }
+
+    private static int lookup(long[] keys, int[] values, long hash, int shift) {
+        int slot = slot(hash, shift);
+        while (values[slot] != 0) {
+            if (keys[slot] == hash)
+                return values[slot] - 1;
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    private boolean equal(int x, int y, int length) {
+        for (int i = 0; i < length; i++) {
+            if (rightSymbols[x + i] != leftSymbols[y + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void addRun(int x, int y, int length) {
+        if (runs == runX.length) {
+            runX = Arrays.copyOf(runX, runs * 2);
+            runY = Arrays.copyOf(runY, runs * 2);
+            runLength = Arrays.copyOf(runLength, runs * 2);
+        }
+        runX[runs] = x;
+        runY[runs] = y;
+        runLength[runs] = length;
+        runs++;
+    }
+
+    /*
+     * Keeps the longest chain of runs that is increasing on the right side as
+     * well, trimming runs that overlap their predecessor on the right.
+     */
+    private void keepIncreasingRuns() {
+        int[] chain = ParallelDifferencer.longestIncreasingChain(runX, runs);
+        int kept = 0;
+        int previousEnd = 0;
+        for (int i = 0; i < chain.length; i++) {
+            int run = chain[i];
+            int x = runX[run];
+            int y = runY[run];
+            int length = runLength[run];
+            if (x < previousEnd) {
+                int overlap = previousEnd - x;
+                x += overlap;
+                y += overlap;
+                length -= overlap;
+            }
+            if (length < WINDOW)
+                continue;
+            runX[kept] = x;
+            runY[kept] = y;
+            runLength[kept] = length;
+            kept++;
+            previousEnd = x + length;
+        }
+        runs = kept;
+    }
+
+    /*
+     * Diffs the gaps between the pinned runs with the engine of the settings
+     * and joins the results.
+     */
+    private RangeDifference[] compareGaps(IProgressMonitor pm,
+            LCSSettings settings, DiffBudget budget, ISymbolComparator left,
+            ISymbolComparator right) {
+        List<RangeDifference> result = new ArrayList<RangeDifference>();
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i <= runs; i++) {
+            if (pm != null && pm.isCanceled())
+                return EMPTY_RESULT;
+            int gapEndX = i < runs ? runX[i] : rightSymbols.length;
+            int gapEndY = i < runs ? runY[i] : leftSymbols.length;
+            int rightLength = gapEndX - x;
+            int leftLength = gapEndY - y;
+            if (rightLength == 0 || leftLength == 0) {
+                if (rightLength > 0 || leftLength > 0)
+                    result.add(new RangeDifference(RangeDifference.CHANGE, x,
+                            rightLength, y, leftLength));
+            } else {
+                RangeDifference[] differences = RangeDifferencer.runEngine(
+                        null, settings, budget, new RangeComparatorSegment(
+                                left, y, leftLength),
+                        new RangeComparatorSegment(right, x, rightLength));
+                for (int j = 0; j < differences.length; j++) {
+                    RangeDifference d = differences[j];
+                    d.fRightStart += x;
+                    d.fLeftStart += y;
+                    result.add(d);
+                }
+            }
+            if (i < runs) {
+                x = gapEndX + runLength[i];
+                y = gapEndY + runLength[i];
+            }
+        }
+        return result.toArray(EMPTY_RESULT);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.LCSSettings;
+
+/**
+ * Produces the differences of two comparators in document order, one segment
+ * at a time, which are the same as those of
+ * <code>RangeDifferencer.findDifferences</code> with the same settings.
+ * <p>
+ * Without a <code>ForkJoinPool</code> in the settings there is only one
+ * segment: the whole sequences are diffed on the first call, since cutting
+ * them could give a longer script. With a pool, long sequences are cut at the
+ * same anchors as in <code>ParallelDifferencer</code>. As many segments
+ * ahead as the pool has threads are diffed in it while the caller consumes
+ * the current one, so the caller can start on the first differences right
+ * away and the search state of only a few segments is alive at any time.
+ * Differences that touch at a cut are joined, as in
+ * <code>ParallelDifferencer</code>.
+ */
+/* package */class DifferenceIterator implements Iterator<RangeDifference> {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    private final LCSSettings settings;
+
+    private final DiffBudget budget;
+
+    private final IRangeComparator left, right;
+
+    /**
+     * the cut points as pairs of (left index, right index), from (0, 0) to the
+     * lengths of both sides
+     */
+    private final int[] cuts;
+
+    /** index in cuts of the start of the next segment to consume */
+    private int nextCut = 0;
+
+    /** index in cuts of the start of the next segment to submit to the pool */
+    private int submitCut = 0;
+
+    private final ForkJoinPool pool;
+
+    /** the segments diffed ahead in the pool, in order */
+    private final LinkedList<ForkJoinTask<RangeDifference[]>> ahead = new LinkedList<ForkJoinTask<RangeDifference[]>>();
+
+    /** the differences of the current segment, relative to the segment */
+    private RangeDifference[] segment = EMPTY_RESULT;
+
+    private int segmentLeftOffset, segmentRightOffset;
+
+    /** index of the next difference of the current segment */
+    private int position = 0;
+
+    /** the next difference to return, null if not read yet */
+    private RangeDifference next;
+
+    /** a difference read ahead to see if it touches the previous one */
+    private RangeDifference lookahead;
+
+    DifferenceIterator(LCSSettings settings, DiffBudget budget,
+            IRangeComparator left, IRangeComparator right) {
+        this.settings = settings;
+        this.budget = budget;
+        this.left = left;
+        this.right = right;
+        pool = settings.getForkJoinPool();
+        int[] anchorCuts = ParallelDifferencer.findCuts(settings, left, right);
+        if (anchorCuts != null) {
+            cuts = anchorCuts;
+        } else {
+            cuts = new int[] { 0, 0, left.getRangeCount(),
+                    right.getRangeCount() };
+        }
+    }
+
+    public boolean hasNext() {
+        if (next == null)
+            next = take();
+        return next != null;
+    }
+
+    public RangeDifference next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        RangeDifference result = next;
+        next = null;
+        return result;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /*
+     * Returns the next difference joined with the ones that touch it at a
+     * cut, or null at the end.
+     */
+    private RangeDifference take() {
+        RangeDifference d = lookahead != null ? lookahead : read();
+        lookahead = null;
+        if (d == null)
+            return null;
+        // only the last difference of a segment can touch the next segment
+        while (position == segment.length && hasNextSegment()) {
+            RangeDifference following = read();
+            if (following == null)
+                break;
+            if (d.rightEnd() == following.fRightStart
+                    && d.leftEnd() == following.fLeftStart) {
+                d.fRightLength += following.fRightLength;
+                d.fLeftLength += following.fLeftLength;
+            } else {
+                lookahead = following;
+                break;
+            }
+        }
+        return d;
+    }
+
+    /*
+     * Returns the next difference in terms of the whole sequences, diffing
+     * the next segments as needed, or null at the end.
+     */
+    private RangeDifference read() {
+        while (position == segment.length) {
+            if (!hasNextSegment())
+                return null;
+            diffNextSegment();
+        }
+        RangeDifference d = segment[position];
+        // release the difference, the caller may keep it
+        segment[position++] = null;
+        d.fRightStart += segmentRightOffset;
+        d.fLeftStart += segmentLeftOffset;
+        return d;
+    }
+
+    private boolean hasNextSegment() {
+        return nextCut + 2 < cuts.length;
+    }
+
+    private void diffNextSegment() {
+        if (pool == null) {
+            segment = diffSegment(nextCut);
+        } else {
+            while (ahead.size() < pool.getParallelism()
+                    && submitCut + 2 < cuts.length) {
+                final int cut = submitCut;
+                ahead.add(pool.submit(new Callable<RangeDifference[]>() {
+                    public RangeDifference[] call() {
+                        return diffSegment(cut);
+                    }
+                }));
+                submitCut += 2;
+            }
+            segment = ahead.removeFirst().join();
+        }
+        segmentLeftOffset = cuts[nextCut];
+        segmentRightOffset = cuts[nextCut + 1];
+        position = 0;
+        nextCut += 2;
+    }
+
+    /*
+     * Diffs the segment that starts at the given index in cuts.
+     */
+    private RangeDifference[] diffSegment(int cut) {
+        if (cuts.length == 4)
+            return RangeDifferencer.findDifferencesSequential(null, settings,
+                    budget, left, right);
+        int leftStart = cuts[cut];
+        int rightStart = cuts[cut + 1];
+        return RangeDifferencer.findDifferencesSequential(null, settings,
+                budget, new RangeComparatorSegment((ISymbolComparator) left,
+                        leftStart, cuts[cut + 2] - leftStart),
+                new RangeComparatorSegment((ISymbolComparator) right,
+                        rightStart, cuts[cut + 3] - rightStart));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import org.eclipse.compare.internal.DiffEngine;
+import org.eclipse.compare.internal.LCSSettings;
+
+/**
+ * Chooses the engine for {@link DiffEngine#AUTO} from cheap statistics of the
+ * input: the range counts, what is left after trimming the common prefix and
+ * suffix, and the share of left entities that occur on the right at all,
+ * sampled over the trimmed region.
+ * <p>
+ * The choice and the reason for it are recorded in the settings.
+ */
+/* package */class EngineSelector {
+
+    /** the number of left entities sampled for the match density */
+    private static final int SAMPLES = 256;
+
+    /** the number of ranges from which the O(D^2) memory of MYERS matters */
+    private static final int LONG_REGION = 1 << 16;
+
+    /**
+     * the sampled share of left entities with a match above which the
+     * sequences are taken for revisions of each other
+     */
+    private static final double SIMILAR = 0.9;
+
+    /** the share below which the sequences are taken for unrelated */
+    private static final double DISSIMILAR = 0.5;
+
+    private EngineSelector() {
+        // static helpers only
+    }
+
+    /**
+     * Returns the engine to compare both comparators with and records it in
+     * the settings.
+     */
+    static DiffEngine select(LCSSettings settings, IRangeComparator left,
+            IRangeComparator right) {
+        int[] rightSymbols = SymbolTable.symbolsOf(right, left);
+        int[] leftSymbols = SymbolTable.symbolsOf(left, right);
+        int rightEnd = right.getRangeCount();
+        int leftEnd = left.getRangeCount();
+        int prefix = 0;
+        while (prefix < rightEnd
+                && prefix < leftEnd
+                && SymbolTable.rangesEqual(rightSymbols, right, prefix,
+                        leftSymbols, left, prefix))
+            prefix++;
+        while (rightEnd > prefix
+                && leftEnd > prefix
+                && SymbolTable.rangesEqual(rightSymbols, right, rightEnd - 1,
+                        leftSymbols, left, leftEnd - 1)) {
+            rightEnd--;
+            leftEnd--;
+        }
+        int n = rightEnd - prefix;
+        int m = leftEnd - prefix;
+
+        if (n == 0 || m == 0)
+            return record(settings, DiffEngine.MYERS,
+                    "one side is empty after trimming");
+        if (n <= BitParallelDifferencer.MAX_LENGTH
+                && m <= BitParallelDifferencer.MAX_LENGTH)
+            return record(settings, DiffEngine.MYERS, "short: " + n + "x" + m
+                    + " after trimming");
+
+        boolean isLong = (double) n * m > settings.getTooLong();
+        if (rightSymbols == null) {
+            if (isLong)
+                return record(settings, DiffEngine.GREEDY, n + "x" + m
+                        + " exceeds tooLong, no symbols to estimate the"
+                        + " distance");
+            if (n + m > LONG_REGION)
+                return record(settings, DiffEngine.LINEAR_MYERS, n + m
+                        + " ranges, no symbols to estimate the distance");
+            return record(settings, DiffEngine.MYERS, n + "x" + m
+                    + ", no symbols to estimate the distance");
+        }
+
+        if (HuntSzymanskiDifferencer.isPreferable(left, right))
+            return record(settings, DiffEngine.HUNT_SZYMANSKI,
+                    "few matching pairs for the edit distance");
+
+        double density = sampleDensity(rightSymbols, leftSymbols, prefix, n,
+                m, ((ISymbolComparator) left).getSymbolTable().size());
+        String stats = n + "x" + m + " after trimming, "
+                + Math.round(density * 100) + "% of sampled entities match";
+        if (density >= SIMILAR && Math.abs(n - m) <= (n + m) / 8) {
+            if (n + m > LONG_REGION)
+                return record(settings, DiffEngine.BANDED, stats
+                        + ": long revision, few edits expected");
+            return record(settings, DiffEngine.MYERS, stats
+                    + ": revision, few edits expected");
+        }
+        if (isLong && density < DISSIMILAR)
+            return record(settings, DiffEngine.GREEDY, stats
+                    + ": long and dissimilar, bounded by powLimit");
+        if (n + m > LONG_REGION)
+            return record(settings, DiffEngine.LINEAR_MYERS, stats
+                    + ": long, linear memory");
+        return record(settings, DiffEngine.MYERS, stats);
+    }
+
+    /*
+     * The share of up to SAMPLES left entities of the trimmed region, evenly
+     * spread, whose symbol occurs in the trimmed right region.
+     */
+    private static double sampleDensity(int[] rightSymbols, int[] leftSymbols,
+            int offset, int n, int m, int symbolCount) {
+        boolean[] present = new boolean[symbolCount];
+        for (int x = offset; x < offset + n; x++)
+            present[rightSymbols[x]] = true;
+        int samples = Math.min(SAMPLES, m);
+        int matches = 0;
+        for (int i = 0; i < samples; i++) {
+            int y = offset + (int) ((long) i * m / samples);
+            if (present[leftSymbols[y]])
+                matches++;
+        }
+        return (double) matches / samples;
+    }
+
+    private static DiffEngine record(LCSSettings settings, DiffEngine engine,
+            String reason) {
+        settings.recordSelection(engine, reason);
+        return engine;
+    }
+}
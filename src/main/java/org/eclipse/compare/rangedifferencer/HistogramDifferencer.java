@@ -0,0 +1,241 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.Arrays;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Histogram differencer, an extension of Bram Cohen's patience diff.
+ * <p>
+ * For a region of both sequences, a histogram of the symbols on the right
+ * side is built. The longest common run that contains the symbol with the
+ * fewest occurrences is used as an anchor, and the regions before and after
+ * it are compared the same way. Rare tokens such as names and numbers thus
+ * tie the two documents together, which keeps moved or rewritten paragraphs
+ * in whole hunks instead of matching them on common words.
+ * <p>
+ * Regions whose common symbols all occur more than
+ * <code>MAX_CHAIN_LENGTH</code> times are handed to the linear-space Myers
+ * algorithm. Comparators without a shared <code>SymbolTable</code> are
+ * compared with Myers altogether.
+ */
+/* package */class HistogramDifferencer extends LinearDifferencer {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    /**
+     * Symbols occurring more often than this in a region are not used as
+     * anchors.
+     */
+    private static final int MAX_CHAIN_LENGTH = 64;
+
+    /* results of findAnchor */
+    private static final int ANCHOR_FOUND = 0;
+
+    private static final int NO_COMMON_SYMBOL = 1;
+
+    private static final int ONLY_FREQUENT_SYMBOLS = 2;
+
+    /** per symbol: the first occurrence in the region and the occurrences */
+    private final int[] head;
+
+    private final int[] count;
+
+    /** per right entity: the next occurrence of the same symbol */
+    private final int[] next;
+
+    /** the anchor found by findAnchor */
+    private int anchorX, anchorY, anchorLength;
+
+    public static RangeDifference[] findDifferences(IProgressMonitor pm,
+            DiffBudget budget, IRangeComparator left, IRangeComparator right) {
+
+        // assert that both IRangeComparators are of the same class
+        Assert.isTrue(right.getClass().equals(left.getClass()));
+
+        if (!SymbolTable.isShared(left, right))
+            return LinearDifferencer.findDifferences(pm, budget, left, right);
+
+        HistogramDifferencer differencer = new HistogramDifferencer(budget,
+                left, right);
+        if (!differencer.compareHistogram(pm))
+            return EMPTY_RESULT;
+        return differencer.createDifferencesRanges();
+    }
+
+    private HistogramDifferencer(DiffBudget budget, IRangeComparator left,
+            IRangeComparator right) {
+        super(budget, left, right);
+        int symbolCount = ((ISymbolComparator) right).getSymbolTable().size();
+        head = new int[symbolCount];
+        count = new int[symbolCount];
+        next = new int[right.getRangeCount()];
+        Arrays.fill(head, -1);
+    }
+
+    /*
+     * Splits the sequences at anchors until no region with a low-occurrence
+     * common symbol is left. Returns false if the comparison was canceled.
+     */
+    private boolean compareHistogram(IProgressMonitor pm) {
+        int[] stack = new int[4 * 16];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = right.getRangeCount();
+        stack[top++] = 0;
+        stack[top++] = left.getRangeCount();
+        // the entities marked as changed so far
+        int edits = 0;
+
+        while (top > 0) {
+            int yLimit = stack[--top];
+            int yOffset = stack[--top];
+            int xLimit = stack[--top];
+            int xOffset = stack[--top];
+
+            if (pm != null) {
+                if (pm.isCanceled())
+                    return false;
+                pm.worked(1);
+            }
+
+            // the common prefix and suffix are always kept
+            while (xOffset < xLimit && yOffset < yLimit
+                    && rightSymbols[xOffset] == leftSymbols[yOffset]) {
+                xOffset++;
+                yOffset++;
+            }
+            while (xLimit > xOffset && yLimit > yOffset
+                    && rightSymbols[xLimit - 1] == leftSymbols[yLimit - 1]) {
+                xLimit--;
+                yLimit--;
+            }
+
+            if (xOffset == xLimit || yOffset == yLimit
+                    || budget.isExhausted(edits)) {
+                markChanged(xOffset, xLimit, yOffset, yLimit);
+                edits += xLimit - xOffset + yLimit - yOffset;
+                continue;
+            }
+
+            int anchor = findAnchor(xOffset, xLimit, yOffset, yLimit);
+            if (anchor == NO_COMMON_SYMBOL) {
+                // nothing in common, the whole region was replaced
+                markChanged(xOffset, xLimit, yOffset, yLimit);
+                edits += xLimit - xOffset + yLimit - yOffset;
+            } else if (anchor == ONLY_FREQUENT_SYMBOLS) {
+                if (!compare(pm, xOffset, xLimit, yOffset, yLimit))
+                    return false;
+            } else {
+                if (top + 8 > stack.length) {
+                    int[] newStack = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, newStack, 0, top);
+                    stack = newStack;
+                }
+                stack[top++] = anchorX + anchorLength;
+                stack[top++] = xLimit;
+                stack[top++] = anchorY + anchorLength;
+                stack[top++] = yLimit;
+                stack[top++] = xOffset;
+                stack[top++] = anchorX;
+                stack[top++] = yOffset;
+                stack[top++] = anchorY;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Looks for the longest common run of right[xOffset..xLimit) and
+     * left[yOffset..yLimit) through the symbol with the lowest number of
+     * occurrences in the right region, and stores it in anchorX, anchorY and
+     * anchorLength.
+     */
+    private int findAnchor(int xOffset, int xLimit, int yOffset, int yLimit) {
+        // index the right region, keeping the chains in ascending order
+        for (int x = xLimit - 1; x >= xOffset; x--) {
+            int symbol = rightSymbols[x];
+            next[x] = head[symbol];
+            head[symbol] = x;
+            count[symbol]++;
+        }
+
+        boolean hasCommon = false;
+        int lowestCount = MAX_CHAIN_LENGTH;
+        anchorLength = 0;
+
+        int y = yOffset;
+        while (y < yLimit) {
+            int symbol = leftSymbols[y];
+            int nextY = y + 1;
+            if (count[symbol] == 0) {
+                y = nextY;
+                continue;
+            }
+            hasCommon = true;
+            if (count[symbol] > lowestCount) {
+                y = nextY;
+                continue;
+            }
+
+            for (int x = head[symbol]; x != -1; x = next[x]) {
+                int runCount = count[symbol];
+                int startX = x;
+                int startY = y;
+                while (startX > xOffset && startY > yOffset
+                        && rightSymbols[startX - 1] == leftSymbols[startY - 1]) {
+                    startX--;
+                    startY--;
+                    runCount = Math.min(runCount, count[rightSymbols[startX]]);
+                }
+                int endX = x + 1;
+                int endY = y + 1;
+                while (endX < xLimit && endY < yLimit
+                        && rightSymbols[endX] == leftSymbols[endY]) {
+                    runCount = Math.min(runCount, count[rightSymbols[endX]]);
+                    endX++;
+                    endY++;
+                }
+
+                // left entities inside this run need not be tried again
+                if (endY > nextY)
+                    nextY = endY;
+
+                if (endX - startX > anchorLength || runCount < lowestCount) {
+                    anchorX = startX;
+                    anchorY = startY;
+                    anchorLength = endX - startX;
+                    lowestCount = runCount;
+                }
+            }
+            y = nextY;
+        }
+
+        // reset the index for the next region
+        for (int x = xOffset; x < xLimit; x++) {
+            head[rightSymbols[x]] = -1;
+            count[rightSymbols[x]] = 0;
+        }
+
+        if (anchorLength > 0)
+            return ANCHOR_FOUND;
+        return hasCommon ? ONLY_FREQUENT_SYMBOLS : NO_COMMON_SYMBOL;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Match list differencer after J. W. Hunt and T. G. Szymanski, <it>A fast
+ * algorithm for computing longest common subsequences,</it> Communications of
+ * the ACM, Vol. 20, 1977.
+ * <p>
+ * For every left entity, the right entities with the same symbol are visited
+ * from the last to the first, and each match extends the shortest chain of
+ * matches it can end. The run time is O((R + M) log N) for R matching pairs,
+ * independent of the edit distance, so it beats the O((N + M) D) of Myers'
+ * algorithm on mostly rewritten documents whose few common entities are rare.
+ * The result is a minimal edit script.
+ * <p>
+ * {@link #isPreferable(IRangeComparator, IRangeComparator)} counts the
+ * matching pairs and estimates the edit distance from the symbol histograms,
+ * in linear time, to tell when this engine is the cheaper one. Comparators
+ * without a shared <code>SymbolTable</code>, or with more matching pairs than
+ * this engine handles in reasonable time, are compared with the linear-space
+ * Myers algorithm, also when this engine was chosen explicitly.
+ */
+/* package */class HuntSzymanskiDifferencer {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    /** the most matching pairs for which this engine is chosen */
+    private static final long MAX_MATCHES = 1 << 22;
+
+    /**
+     * how many times cheaper the match list must be estimated than the
+     * diagonal search to be preferred
+     */
+    private static final double PREFERENCE_FACTOR = 8;
+
+    private final int[] rightSymbols;
+
+    private final int[] leftSymbols;
+
+    private final int symbolCount;
+
+    /** start of the region both sequences differ in */
+    private final int offset;
+
+    /** length of the region in right and left */
+    private final int n, m;
+
+    /* the matches of the chains: right index, left index, previous match */
+    private int[] matchX = new int[1024];
+
+    private int[] matchY = new int[1024];
+
+    private int[] matchPrevious = new int[1024];
+
+    private int matches = 0;
+
+    /**
+     * Returns whether both comparators share a symbol table and matching
+     * pairs are so sparse that this engine is clearly faster than Myers'.
+     */
+    static boolean isPreferable(IRangeComparator left, IRangeComparator right) {
+        if (!SymbolTable.isShared(left, right))
+            return false;
+        ISymbolComparator leftComparator = (ISymbolComparator) left;
+        int[] leftSymbols = leftComparator.getSymbols();
+        int[] rightSymbols = ((ISymbolComparator) right).getSymbols();
+        int symbolCount = leftComparator.getSymbolTable().size();
+        int n = rightSymbols.length;
+        int m = leftSymbols.length;
+
+        int[] rightCount = histogram(rightSymbols, 0, n, symbolCount);
+        long pairs = countMatches(rightCount, leftSymbols, 0, m);
+        if (pairs > MAX_MATCHES)
+            return false;
+
+        // no common subsequence is longer than the common symbols
+        int[] leftCount = histogram(leftSymbols, 0, m, symbolCount);
+        long common = 0;
+        for (int symbol = 0; symbol < symbolCount; symbol++)
+            common += Math.min(leftCount[symbol], rightCount[symbol]);
+        long minEdits = n + m - 2 * common;
+
+        double diagonalCost = (double) (n + m) * minEdits;
+        double matchCost = (pairs + m)
+                * (Math.log(n + 1) / Math.log(2) + 1);
+        return matchCost * PREFERENCE_FACTOR < diagonalCost;
+    }
+
+    public static RangeDifference[] findDifferences(IProgressMonitor pm,
+            DiffBudget budget, IRangeComparator left, IRangeComparator right) {
+
+        // assert that both IRangeComparators are of the same class
+        Assert.isTrue(right.getClass().equals(left.getClass()));
+
+        if (!SymbolTable.isShared(left, right))
+            return LinearDifferencer.findDifferences(pm, budget, left, right);
+
+        HuntSzymanskiDifferencer differencer = new HuntSzymanskiDifferencer(
+                (ISymbolComparator) left, (ISymbolComparator) right);
+        if (differencer.countMatches() > MAX_MATCHES)
+            return LinearDifferencer.findDifferences(pm, budget, left, right);
+        return differencer.compare(pm, budget);
+    }
+
+    /*
+     * Counts the occurrences of every symbol in symbols[from..to).
+     */
+    private static int[] histogram(int[] symbols, int from, int to,
+            int symbolCount) {
+        int[] count = new int[symbolCount];
+        for (int i = from; i < to; i++)
+            count[symbols[i]]++;
+        return count;
+    }
+
+    /*
+     * Counts the pairs of an entity of symbols[from..to) and an entity with
+     * the same symbol counted in rightCount.
+     */
+    private static long countMatches(int[] rightCount, int[] symbols,
+            int from, int to) {
+        long pairs = 0;
+        for (int i = from; i < to; i++)
+            pairs += rightCount[symbols[i]];
+        return pairs;
+    }
+
+    private HuntSzymanskiDifferencer(ISymbolComparator left,
+            ISymbolComparator right) {
+        rightSymbols = right.getSymbols();
+        leftSymbols = left.getSymbols();
+        symbolCount = left.getSymbolTable().size();
+
+        // trim the common prefix and suffix
+        int prefix = 0;
+        int rightEnd = rightSymbols.length;
+        int leftEnd = leftSymbols.length;
+        while (prefix < rightEnd && prefix < leftEnd
+                && rightSymbols[prefix] == leftSymbols[prefix])
+            prefix++;
+        while (rightEnd > prefix && leftEnd > prefix
+                && rightSymbols[rightEnd - 1] == leftSymbols[leftEnd - 1]) {
+            rightEnd--;
+            leftEnd--;
+        }
+        offset = prefix;
+        n = rightEnd - prefix;
+        m = leftEnd - prefix;
+    }
+
+    /*
+     * Returns the number of matching pairs in the region both sequences
+     * differ in.
+     */
+    private long countMatches() {
+        int[] rightCount = histogram(rightSymbols, offset, offset + n,
+                symbolCount);
+        return countMatches(rightCount, leftSymbols, offset, offset + m);
+    }
+
+    /*
+     * Computes the longest chain of matches and turns the gaps between them
+     * into differences. Returns an empty array if canceled.
+     */
+    private RangeDifference[] compare(IProgressMonitor pm, DiffBudget budget) {
+        if (n == 0 && m == 0)
+            return EMPTY_RESULT;
+
+        // the right positions of every symbol, in ascending order
+        int[] start = new int[symbolCount + 1];
+        for (int x = 0; x < n; x++)
+            start[rightSymbols[offset + x] + 1]++;
+        for (int symbol = 0; symbol < symbolCount; symbol++)
+            start[symbol + 1] += start[symbol];
+        int[] positions = new int[n];
+        int[] fill = Arrays.copyOf(start, symbolCount);
+        for (int x = 0; x < n; x++)
+            positions[fill[rightSymbols[offset + x]]++] = x;
+
+        // thresholds[k]: the smallest right index that ends a chain of k + 1
+        // matches, ends[k]: the last match of that chain
+        int[] thresholds = new int[Math.min(n, m) + 1];
+        int[] ends = new int[thresholds.length];
+        int length = 0;
+
+        for (int y = 0; y < m; y++) {
+            if (pm != null) {
+                if (pm.isCanceled())
+                    return EMPTY_RESULT;
+                pm.worked(1);
+            }
+            // stop at the chains found so far once the budget is spent: the
+            // remaining left entities extend the longest chain by at most one
+            // each, which bounds the edit distance from below
+            long longest = Math.min(length + m - y, Math.min(n, m));
+            if (budget.isExhausted((int) (n + m - 2 * longest)))
+                break;
+            int symbol = leftSymbols[offset + y];
+            for (int i = start[symbol + 1] - 1; i >= start[symbol]; i--) {
+                int x = positions[i];
+                // the first chain whose threshold is not smaller than x
+                int low = 0;
+                int high = length;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (thresholds[middle] < x)
+                        low = middle + 1;
+                    else
+                        high = middle;
+                }
+                if (low == length || thresholds[low] > x) {
+                    thresholds[low] = x;
+                    ends[low] = addMatch(x, y, low > 0 ? ends[low - 1] : -1);
+                    if (low == length)
+                        length++;
+                }
+            }
+        }
+        return createDifferencesRanges(length > 0 ? ends[length - 1] : -1,
+                length);
+    }
+
+    private int addMatch(int x, int y, int previous) {
+        if (matches == matchX.length) {
+            matchX = Arrays.copyOf(matchX, matches * 2);
+            matchY = Arrays.copyOf(matchY, matches * 2);
+            matchPrevious = Arrays.copyOf(matchPrevious, matches * 2);
+        }
+        matchX[matches] = x;
+        matchY[matches] = y;
+        matchPrevious[matches] = previous;
+        return matches++;
+    }
+
+    /*
+     * Creates the differences around the chain of the given length that ends
+     * with the given match.
+     */
+    private RangeDifference[] createDifferencesRanges(int last, int length) {
+        int[] chain = new int[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chain[i] = last;
+            last = matchPrevious[last];
+        }
+        List<RangeDifference> result = new ArrayList<RangeDifference>();
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i <= length; i++) {
+            int nextX = i < length ? matchX[chain[i]] : n;
+            int nextY = i < length ? matchY[chain[i]] : m;
+            if (nextX > x || nextY > y)
+                result.add(new RangeDifference(RangeDifference.CHANGE, offset
+                        + x, nextX - x, offset + y, nextY - y));
+            x = nextX + 1;
+            y = nextY + 1;
+        }
+        return result.toArray(EMPTY_RESULT);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+/**
+ * An <code>IRangeComparator</code> that has interned each of its entities
+ * into a <code>SymbolTable</code>. When two such comparators share a table,
+ * <code>rangesEqual(i, other, j)</code> must be equivalent to
+ * <code>getSymbols()[i] == other.getSymbols()[j]</code>, which lets the
+ * differencer compare plain ints on its hot paths.
+ *
+ * @see SymbolTable
+ */
+public interface ISymbolComparator extends IRangeComparator {
+
+    /**
+     * @return the table the symbols of this comparator were taken from
+     */
+    SymbolTable getSymbolTable();
+
+    /**
+     * Re-interns all entities into the given table. Called by the
+     * differencer to give two independently built comparators a common
+     * table.
+     *
+     * @param table
+     *                the table to take symbols from from now on
+     */
+    void useSymbolTable(SymbolTable table);
+
+    /**
+     * Returns the symbol of each entity. The array must not be modified.
+     *
+     * @return an array of <code>getRangeCount()</code> symbols
+     */
+    int[] getSymbols();
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.Snakes;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Computes a minimal edit script with the linear space refinement described
+ * in: <it>An O(ND) Difference Algorithm and Its Variations,</it> by Eugene W.
+ * Myers, Algorithmica, Vol. 1, 1986.
+ * <p>
+ * Instead of keeping a script for every diagonal like
+ * <code>OldDifferencer</code>, the sequences are split at the middle snake of
+ * an optimal path and both halves are solved independently. Only two
+ * furthest-reaching vectors and one changed flag per entity are kept, so the
+ * memory use is O(N + M) regardless of the number of differences.
+ */
+/* package */class LinearDifferencer {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    final IRangeComparator right;
+
+    final IRangeComparator left;
+
+    final DiffBudget budget;
+
+    /** the shared symbols of both sides, or null if there are none */
+    final int[] rightSymbols;
+
+    final int[] leftSymbols;
+
+    /** furthest reaching forward and backward paths, indexed by diagonal */
+    private final int[] forward;
+
+    private final int[] backward;
+
+    /** offset of diagonal 0 in forward and backward */
+    private final int origin;
+
+    /** entities of right (deleted) and left (inserted) not on the path */
+    final boolean[] rightChanged;
+
+    final boolean[] leftChanged;
+
+    /** x and y coordinate of the last middle snake found */
+    private int midX, midY;
+
+    public static RangeDifference[] findDifferences(IProgressMonitor pm,
+            DiffBudget budget, IRangeComparator left, IRangeComparator right) {
+
+        // assert that both IRangeComparators are of the same class
+        Assert.isTrue(right.getClass().equals(left.getClass()));
+
+        LinearDifferencer differencer = new LinearDifferencer(budget, left,
+                right);
+        if (!differencer.compare(pm))
+            return EMPTY_RESULT;
+        return differencer.createDifferencesRanges();
+    }
+
+    LinearDifferencer(DiffBudget budget, IRangeComparator left,
+            IRangeComparator right) {
+        this.budget = budget;
+        this.left = left;
+        this.right = right;
+        rightSymbols = SymbolTable.symbolsOf(right, left);
+        leftSymbols = SymbolTable.symbolsOf(left, right);
+        int rightSize = right.getRangeCount();
+        int leftSize = left.getRangeCount();
+        // diagonals range from -leftSize - 1 to rightSize + 1
+        origin = leftSize + 1;
+        forward = new int[rightSize + leftSize + 3];
+        backward = new int[rightSize + leftSize + 3];
+        rightChanged = new boolean[rightSize];
+        leftChanged = new boolean[leftSize];
+    }
+
+    /*
+     * Marks all entities that are not on a shortest edit path. Returns false
+     * if the comparison was canceled.
+     */
+    boolean compare(IProgressMonitor pm) {
+        return compare(pm, 0, right.getRangeCount(), 0, left.getRangeCount());
+    }
+
+    /*
+     * Marks the entities of right[xOffset..xLimit) and left[yOffset..yLimit)
+     * that are not on a shortest edit path between those ranges. The
+     * sub-problems are kept on an explicit stack to not depend on the depth
+     * of the Java stack for long scripts. Once the budget is exhausted, the
+     * remaining sub-problems are marked as changed altogether. Returns false
+     * if the comparison was canceled.
+     */
+    boolean compare(IProgressMonitor pm, int xStart, int xEnd, int yStart,
+            int yEnd) {
+        int maxDiagonal = right.getRangeCount() + left.getRangeCount();
+        int[] stack = new int[4 * 16];
+        int top = 0;
+        stack[top++] = xStart;
+        stack[top++] = xEnd;
+        stack[top++] = yStart;
+        stack[top++] = yEnd;
+        int d = 0;
+
+        while (top > 0) {
+            int yLimit = stack[--top];
+            int yOffset = stack[--top];
+            int xLimit = stack[--top];
+            int xOffset = stack[--top];
+
+            if (pm != null) {
+                if (pm.isCanceled())
+                    return false;
+                pm.worked(1);
+            }
+
+            // the common prefix and suffix are always on the path
+            int prefix = snake(xOffset, yOffset, xLimit, yLimit);
+            xOffset += prefix;
+            yOffset += prefix;
+            while (xLimit > xOffset && yLimit > yOffset
+                    && rangesEqual(xLimit - 1, yLimit - 1)) {
+                xLimit--;
+                yLimit--;
+            }
+
+            if (xOffset == xLimit) {
+                for (int y = yOffset; y < yLimit; y++)
+                    leftChanged[y] = true;
+            } else if (yOffset == yLimit) {
+                for (int x = xOffset; x < xLimit; x++)
+                    rightChanged[x] = true;
+            } else {
+                if (right.skipRangeComparison(++d, maxDiagonal, left))
+                    return false;
+
+                if (!findMiddleSnake(xOffset, xLimit, yOffset, yLimit)) {
+                    markChanged(xOffset, xLimit, yOffset, yLimit);
+                    continue;
+                }
+
+                if (top + 8 > stack.length) {
+                    int[] newStack = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, newStack, 0, top);
+                    stack = newStack;
+                }
+                // both halves contain at least one difference, so they are
+                // strictly smaller than the current problem
+                stack[top++] = midX;
+                stack[top++] = xLimit;
+                stack[top++] = midY;
+                stack[top++] = yLimit;
+                stack[top++] = xOffset;
+                stack[top++] = midX;
+                stack[top++] = yOffset;
+                stack[top++] = midY;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Extends D-paths from the upper left and the lower right corner of
+     * right[xOffset..xLimit) x left[yOffset..yLimit) until they overlap and
+     * stores the point where they meet in midX and midY. The first and the
+     * last entities of both ranges must differ. Returns false if the budget
+     * ran out first.
+     */
+    private boolean findMiddleSnake(int xOffset, int xLimit, int yOffset,
+            int yLimit) {
+        int minDiagonal = xOffset - yLimit;
+        int maxDiagonal = xLimit - yOffset;
+        int forwardMid = xOffset - yOffset;
+        int backwardMid = xLimit - yLimit;
+        int forwardMin = forwardMid, forwardMax = forwardMid;
+        int backwardMin = backwardMid, backwardMax = backwardMid;
+        boolean odd = ((forwardMid - backwardMid) & 1) != 0;
+
+        forward[origin + forwardMid] = xOffset;
+        backward[origin + backwardMid] = xLimit;
+
+        for (int d = 1;; d++) {
+            if (budget.isExhausted(2 * d))
+                return false;
+
+            // extend the forward paths by one edit
+            if (forwardMin > minDiagonal)
+                forward[origin + --forwardMin - 1] = -1;
+            else
+                ++forwardMin;
+            if (forwardMax < maxDiagonal)
+                forward[origin + ++forwardMax + 1] = -1;
+            else
+                --forwardMax;
+            for (int k = forwardMax; k >= forwardMin; k -= 2) {
+                int low = forward[origin + k - 1];
+                int high = forward[origin + k + 1];
+                int x = low >= high ? low + 1 : high;
+                int y = x - k;
+                int snake = snake(x, y, xLimit, yLimit);
+                x += snake;
+                y += snake;
+                forward[origin + k] = x;
+                if (odd && backwardMin <= k && k <= backwardMax
+                        && backward[origin + k] <= x) {
+                    midX = x;
+                    midY = y;
+                    return true;
+                }
+            }
+
+            // extend the backward paths by one edit
+            if (backwardMin > minDiagonal)
+                backward[origin + --backwardMin - 1] = Integer.MAX_VALUE;
+            else
+                ++backwardMin;
+            if (backwardMax < maxDiagonal)
+                backward[origin + ++backwardMax + 1] = Integer.MAX_VALUE;
+            else
+                --backwardMax;
+            for (int k = backwardMax; k >= backwardMin; k -= 2) {
+                int low = backward[origin + k - 1];
+                int high = backward[origin + k + 1];
+                int x = low < high ? low : high - 1;
+                int y = x - k;
+                while (x > xOffset && y > yOffset && rangesEqual(x - 1, y - 1)) {
+                    x--;
+                    y--;
+                }
+                backward[origin + k] = x;
+                if (!odd && forwardMin <= k && k <= forwardMax
+                        && x <= forward[origin + k]) {
+                    midX = x;
+                    midY = y;
+                    return true;
+                }
+            }
+        }
+    }
+
+    /*
+     * Marks right[xOffset..xLimit) and left[yOffset..yLimit) as one changed
+     * block.
+     */
+    void markChanged(int xOffset, int xLimit, int yOffset, int yLimit) {
+        for (int x = xOffset; x < xLimit; x++)
+            rightChanged[x] = true;
+        for (int y = yOffset; y < yLimit; y++)
+            leftChanged[y] = true;
+    }
+
+    /*
+     * Returns the number of equal ranges from (x, y) on, up to the limits.
+     */
+    int snake(int x, int y, int xLimit, int yLimit) {
+        if (rightSymbols != null)
+            return Snakes.forward(rightSymbols, x, xLimit, leftSymbols, y,
+                    yLimit);
+        int n = 0;
+        while (x + n < xLimit && y + n < yLimit && rangesEqual(x + n, y + n))
+            n++;
+        return n;
+    }
+
+    /*
+     * Tests if two ranges are equal
+     */
+    boolean rangesEqual(int rightIndex, int leftIndex) {
+        if (rightSymbols != null)
+            return rightSymbols[rightIndex] == leftSymbols[leftIndex];
+        return right.rangesEqual(rightIndex, left, leftIndex);
+    }
+
+    /*
+     * Creates the RangeDifferences out of the changed flags. Unchanged
+     * entities of both sides are matched in order, every maximal run of
+     * changed entities in between becomes one difference.
+     */
+    RangeDifference[] createDifferencesRanges() {
+        List<RangeDifference> result = new ArrayList<RangeDifference>();
+        int rightSize = rightChanged.length;
+        int leftSize = leftChanged.length;
+        int x = 0;
+        int y = 0;
+        while (x < rightSize || y < leftSize) {
+            if (x < rightSize && y < leftSize && !rightChanged[x]
+                    && !leftChanged[y]) {
+                x++;
+                y++;
+                continue;
+            }
+            int rightStart = x;
+            int leftStart = y;
+            while (x < rightSize && rightChanged[x])
+                x++;
+            while (y < leftSize && leftChanged[y])
+                y++;
+            Assert.isTrue(x > rightStart || y > leftStart);
+            result.add(new RangeDifference(RangeDifference.CHANGE, rightStart,
+                    x - rightStart, leftStart, y - leftStart));
+        }
+        return result.toArray(EMPTY_RESULT);
+    }
+}
@@ -12,6 +12,8 @@ package org.eclipse.compare.rangedifferencer;
 
 import java.util.ArrayList;
 
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.Snakes;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.IProgressMonitor;
 
@@ -73,13 +75,16 @@ import org.eclipse.core.runtime.IProgressMonitor;
     }
 
     public static RangeDifference[] findDifferences(IProgressMonitor pm,
-            IRangeComparator left, IRangeComparator right) {
+            DiffBudget budget, IRangeComparator left, IRangeComparator right) {
 
         // assert that both IRangeComparators are of the same class
         Assert.isTrue(right.getClass().equals(left.getClass()));
 
         int rightSize = right.getRangeCount();
         int leftSize = left.getRangeCount();
+        // compare interned symbols instead of calling rangesEqual if possible
+        int[] rightSymbols = SymbolTable.symbolsOf(right, left);
+        int[] leftSymbols = SymbolTable.symbolsOf(left, right);
         //
         // Differences matrix:
         // only the last d of each diagonal is stored, i.e., lastDiagonal[k] =
@@ -98,9 +103,14 @@ import org.eclipse.core.runtime.IProgressMonitor;
         int row, col;
 
         // find common prefix
-        for (row = 0; row < rightSize && row < leftSize
-                && rangesEqual(right, row, left, row) == true;)
-            row++;
+        if (rightSymbols != null)
+            row = Snakes.forward(rightSymbols, 0, rightSize, leftSymbols, 0,
+                    leftSize);
+        else
+            for (row = 0; row < rightSize && row < leftSize
+                    && SymbolTable.rangesEqual(rightSymbols, right, row,
+                            leftSymbols, left, row) == true;)
+                row++;
 
         lastDiagonal[origin] = row;
         script[origin] = null;
@@ -110,6 +120,9 @@ import org.eclipse.core.runtime.IProgressMonitor;
         if (lower > upper)
             return EMPTY_RESULT;
 
+        // the diagonal whose path got furthest, for when the budget runs out
+        int furthest = origin;
+
         // System.out.println("findDifferences: " + maxDiagonal + " " + lower +
         // " " + upper);
 
@@ -123,6 +136,12 @@ import org.eclipse.core.runtime.IProgressMonitor;
             if (right.skipRangeComparison(d, maxDiagonal, left))
                 return EMPTY_RESULT; // should be something we already found
 
+            if (budget.isExhausted(d))
+                return createApproximateRanges(script[furthest],
+                        lastDiagonal[furthest], lastDiagonal[furthest]
+                                + furthest - origin, rightSymbols, right,
+                        leftSymbols, left);
+
             // for each relevant diagonal (-d, -d+2 ..., d-2, d)
             for (int k = lower; k <= upper; k += 2) { // k is the current
                                                         // diagonal
@@ -154,16 +173,26 @@ import org.eclipse.core.runtime.IProgressMonitor;
                 script[k] = edit;
 
                 // slide down the diagonal as far as possible
-                while (row < rightSize && col < leftSize
-                        && rangesEqual(right, row, left, col) == true) {
-                    ++row;
-                    ++col;
+                if (rightSymbols != null) {
+                    int snake = Snakes.forward(rightSymbols, row, rightSize,
+                            leftSymbols, col, leftSize);
+                    row += snake;
+                    col += snake;
+                } else {
+                    while (row < rightSize && col < leftSize
+                            && SymbolTable.rangesEqual(rightSymbols, right,
+                                    row, leftSymbols, left, col) == true) {
+                        ++row;
+                        ++col;
+                    }
                 }
 
                 Assert.isTrue(k >= 0 && k <= maxDiagonal); // Unreasonable
                                                             // value for
                                                             // diagonal index
                 lastDiagonal[k] = row;
+                if (2 * row + k > 2 * lastDiagonal[furthest] + furthest)
+                    furthest = k;
 
                 if (row == rightSize && col == leftSize) {
                     // showScript(script[k], right, left);
@@ -183,11 +212,34 @@ import org.eclipse.core.runtime.IProgressMonitor;
     }
 
     /*
-     * Tests if two ranges are equal
+     * Creates the RangeDifferences of a path that reached (row, col) and
+     * reports everything after it, up to the common suffix, as one change.
      */
-    private static boolean rangesEqual(IRangeComparator a, int ai,
-            IRangeComparator b, int bi) {
-        return a.rangesEqual(ai, b, bi);
+    private static RangeDifference[] createApproximateRanges(
+            LinkedRangeDifference start, int row, int col, int[] rightSymbols,
+            IRangeComparator right, int[] leftSymbols, IRangeComparator left) {
+        RangeDifference[] path = createDifferencesRanges(start);
+        int rightEnd = right.getRangeCount();
+        int leftEnd = left.getRangeCount();
+        while (rightEnd > row
+                && leftEnd > col
+                && SymbolTable.rangesEqual(rightSymbols, right, rightEnd - 1,
+                        leftSymbols, left, leftEnd - 1)) {
+            rightEnd--;
+            leftEnd--;
+        }
+
+        RangeDifference last = path.length > 0 ? path[path.length - 1] : null;
+        if (last != null && last.rightEnd() == row && last.leftEnd() == col) {
+            last.fRightLength = rightEnd - last.fRightStart;
+            last.fLeftLength = leftEnd - last.fLeftStart;
+            return path;
+        }
+        RangeDifference[] result = new RangeDifference[path.length + 1];
+        System.arraycopy(path, 0, result, 0, path.length);
+        result[path.length] = new RangeDifference(RangeDifference.CHANGE, row,
+                rightEnd - row, col, leftEnd - col);
+        return result;
     }
 
     /*
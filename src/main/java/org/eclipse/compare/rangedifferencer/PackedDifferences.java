@@ -0,0 +1,216 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+/**
+ * A sequence of differences packed into one <code>int[]</code>, as an
+ * alternative to an array of <code>RangeDifference</code> objects.
+ * <p>
+ * Hunks are addressed by index. They can be merged and compacted in place
+ * with {@link #move(int, int)}, {@link #extend(int, int)} and
+ * {@link #truncate(int)}, so post-processing the differences does not
+ * allocate. A {@link Cursor} walks over the hunks like an iterator.
+ */
+public final class PackedDifferences {
+
+    /* the fields of a hunk */
+    private static final int KIND = 0;
+
+    private static final int RIGHT_START = 1;
+
+    private static final int RIGHT_LENGTH = 2;
+
+    private static final int LEFT_START = 3;
+
+    private static final int LEFT_LENGTH = 4;
+
+    private static final int ANCESTOR_START = 5;
+
+    private static final int ANCESTOR_LENGTH = 6;
+
+    private static final int FIELDS = 7;
+
+    private final int[] data;
+
+    private int size;
+
+    /**
+     * Packs the given differences.
+     */
+    public PackedDifferences(RangeDifference[] differences) {
+        size = differences.length;
+        data = new int[size * FIELDS];
+        for (int i = 0; i < size; i++) {
+            RangeDifference d = differences[i];
+            int base = i * FIELDS;
+            data[base + KIND] = d.kind();
+            data[base + RIGHT_START] = d.rightStart();
+            data[base + RIGHT_LENGTH] = d.rightLength();
+            data[base + LEFT_START] = d.leftStart();
+            data[base + LEFT_LENGTH] = d.leftLength();
+            data[base + ANCESTOR_START] = d.ancestorStart();
+            data[base + ANCESTOR_LENGTH] = d.ancestorLength();
+        }
+    }
+
+    /**
+     * Returns the number of hunks.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int kind(int i) {
+        return data[i * FIELDS + KIND];
+    }
+
+    public int rightStart(int i) {
+        return data[i * FIELDS + RIGHT_START];
+    }
+
+    public int rightLength(int i) {
+        return data[i * FIELDS + RIGHT_LENGTH];
+    }
+
+    public int rightEnd(int i) {
+        return rightStart(i) + rightLength(i);
+    }
+
+    public int leftStart(int i) {
+        return data[i * FIELDS + LEFT_START];
+    }
+
+    public int leftLength(int i) {
+        return data[i * FIELDS + LEFT_LENGTH];
+    }
+
+    public int leftEnd(int i) {
+        return leftStart(i) + leftLength(i);
+    }
+
+    public int ancestorStart(int i) {
+        return data[i * FIELDS + ANCESTOR_START];
+    }
+
+    public int ancestorLength(int i) {
+        return data[i * FIELDS + ANCESTOR_LENGTH];
+    }
+
+    public int ancestorEnd(int i) {
+        return ancestorStart(i) + ancestorLength(i);
+    }
+
+    /**
+     * Copies hunk <code>source</code> over hunk <code>target</code>.
+     */
+    public void move(int source, int target) {
+        if (source != target)
+            System.arraycopy(data, source * FIELDS, data, target * FIELDS,
+                    FIELDS);
+    }
+
+    /**
+     * Extends hunk <code>target</code> on all sides up to the end of hunk
+     * <code>source</code>, swallowing everything in between.
+     */
+    public void extend(int target, int source) {
+        int base = target * FIELDS;
+        data[base + RIGHT_LENGTH] = rightEnd(source) - rightStart(target);
+        data[base + LEFT_LENGTH] = leftEnd(source) - leftStart(target);
+        data[base + ANCESTOR_LENGTH] = ancestorEnd(source)
+                - ancestorStart(target);
+    }
+
+    /**
+     * Drops all hunks from index <code>size</code> on.
+     */
+    public void truncate(int size) {
+        this.size = Math.min(this.size, size);
+    }
+
+    /**
+     * Returns a new cursor positioned before the first hunk.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A view of one hunk at a time. {@link #next()} moves to the next hunk
+     * and the accessors read the fields of the current one.
+     */
+    public final class Cursor {
+
+        private int index = -1;
+
+        private Cursor() {
+            // created by cursor()
+        }
+
+        /**
+         * Moves to the next hunk. Returns false if there is none.
+         */
+        public boolean next() {
+            if (index < size)
+                index++;
+            return index < size;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public int kind() {
+            return PackedDifferences.this.kind(index);
+        }
+
+        public int rightStart() {
+            return PackedDifferences.this.rightStart(index);
+        }
+
+        public int rightLength() {
+            return PackedDifferences.this.rightLength(index);
+        }
+
+        public int rightEnd() {
+            return PackedDifferences.this.rightEnd(index);
+        }
+
+        public int leftStart() {
+            return PackedDifferences.this.leftStart(index);
+        }
+
+        public int leftLength() {
+            return PackedDifferences.this.leftLength(index);
+        }
+
+        public int leftEnd() {
+            return PackedDifferences.this.leftEnd(index);
+        }
+
+        public int ancestorStart() {
+            return PackedDifferences.this.ancestorStart(index);
+        }
+
+        public int ancestorLength() {
+            return PackedDifferences.this.ancestorLength(index);
+        }
+
+        public int ancestorEnd() {
+            return PackedDifferences.this.ancestorEnd(index);
+        }
+    }
+}
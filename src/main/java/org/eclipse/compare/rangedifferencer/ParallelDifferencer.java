@@ -0,0 +1,279 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.LCSSettings;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Splits a long comparison into independent segments and diffs those
+ * concurrently.
+ * <p>
+ * The segments are cut at anchors: entities whose symbol occurs exactly once
+ * on each side. The longest chain of anchors that is increasing on both sides
+ * is computed as in patience diff, and the sequences are cut at anchors of
+ * that chain whenever a segment has grown large enough. Each segment is diffed
+ * with the configured engine in the <code>ForkJoinPool</code> of the settings,
+ * and the results are shifted and stitched together into one ordinary
+ * <code>RangeDifference[]</code>.
+ * <p>
+ * An optimal script need not pass through the anchors, so the stitched script
+ * is valid but can be longer than, and differ from, the one of the whole
+ * sequences. That is why the mode is only used when a pool is set.
+ */
+/* package */class ParallelDifferencer {
+
+    private static final RangeDifference[] EMPTY_RESULT = new RangeDifference[0];
+
+    /** the number of segments to create per thread of the pool */
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    public static RangeDifference[] findDifferences(IProgressMonitor pm,
+            LCSSettings settings, DiffBudget budget, IRangeComparator left,
+            IRangeComparator right) {
+        int[] cuts = findCuts(settings, left, right);
+        if (cuts == null)
+            return RangeDifferencer.findDifferencesSequential(pm, settings,
+                    budget, left, right);
+
+        if (pm != null && pm.isCanceled())
+            return EMPTY_RESULT;
+
+        ISymbolComparator leftComparator = (ISymbolComparator) left;
+        ISymbolComparator rightComparator = (ISymbolComparator) right;
+        List<SegmentTask> tasks = new ArrayList<SegmentTask>();
+        for (int i = 0; i + 2 < cuts.length; i += 2) {
+            tasks.add(new SegmentTask(settings, budget, leftComparator,
+                    cuts[i], cuts[i + 2] - cuts[i], rightComparator,
+                    cuts[i + 1], cuts[i + 3] - cuts[i + 1]));
+        }
+        settings.getForkJoinPool().invoke(new SegmentsTask(tasks));
+
+        if (pm != null && pm.isCanceled())
+            return EMPTY_RESULT;
+        return stitch(tasks);
+    }
+
+    /*
+     * Returns the cut points of both comparators for the pool of the
+     * settings as in findCuts below, or null if they are diffed as a whole:
+     * without a pool, without a shared symbol table or without two segments.
+     */
+    static int[] findCuts(LCSSettings settings, IRangeComparator left,
+            IRangeComparator right) {
+        ForkJoinPool pool = settings.getForkJoinPool();
+        if (pool == null || !SymbolTable.isShared(left, right))
+            return null;
+        int total = left.getRangeCount() + right.getRangeCount();
+        int segmentSize = Math.max(settings.getParallelThreshold(), total
+                / (pool.getParallelism() * SEGMENTS_PER_THREAD));
+        if (total < 2 * segmentSize)
+            return null;
+        ISymbolComparator leftComparator = (ISymbolComparator) left;
+        ISymbolComparator rightComparator = (ISymbolComparator) right;
+        int[] cuts = findCuts(leftComparator.getSymbols(), rightComparator
+                .getSymbols(), leftComparator.getSymbolTable().size(),
+                segmentSize);
+        return cuts.length == 4 ? null : cuts;
+    }
+
+    /*
+     * Returns the cut points as pairs of (left index, right index), starting
+     * with (0, 0) and ending with the lengths of both sides.
+     */
+    static int[] findCuts(int[] leftSymbols, int[] rightSymbols,
+            int symbolCount, int segmentSize) {
+        // occurrences per symbol, counting up to 2
+        int[] leftCount = new int[symbolCount];
+        int[] rightCount = new int[symbolCount];
+        int[] rightPosition = new int[symbolCount];
+        for (int x = 0; x < rightSymbols.length; x++) {
+            int symbol = rightSymbols[x];
+            if (rightCount[symbol] < 2)
+                rightCount[symbol]++;
+            rightPosition[symbol] = x;
+        }
+        for (int y = 0; y < leftSymbols.length; y++) {
+            int symbol = leftSymbols[y];
+            if (leftCount[symbol] < 2)
+                leftCount[symbol]++;
+        }
+
+        // the anchors in left order
+        int anchorCount = 0;
+        int[] anchorLeft = new int[Math.min(leftSymbols.length,
+                rightSymbols.length)];
+        int[] anchorRight = new int[anchorLeft.length];
+        for (int y = 0; y < leftSymbols.length; y++) {
+            int symbol = leftSymbols[y];
+            if (leftCount[symbol] == 1 && rightCount[symbol] == 1) {
+                anchorLeft[anchorCount] = y;
+                anchorRight[anchorCount] = rightPosition[symbol];
+                anchorCount++;
+            }
+        }
+
+        int[] chain = longestIncreasingChain(anchorRight, anchorCount);
+
+        List<int[]> cuts = new ArrayList<int[]>();
+        cuts.add(new int[] { 0, 0 });
+        int lastLeft = 0;
+        int lastRight = 0;
+        for (int i = 0; i < chain.length; i++) {
+            int y = anchorLeft[chain[i]];
+            int x = anchorRight[chain[i]];
+            if (y - lastLeft + x - lastRight >= 2 * segmentSize
+                    && leftSymbols.length - y + rightSymbols.length - x >= segmentSize) {
+                cuts.add(new int[] { y, x });
+                lastLeft = y;
+                lastRight = x;
+            }
+        }
+        cuts.add(new int[] { leftSymbols.length, rightSymbols.length });
+
+        int[] result = new int[cuts.size() * 2];
+        for (int i = 0; i < cuts.size(); i++) {
+            int[] cut = cuts.get(i);
+            result[2 * i] = cut[0];
+            result[2 * i + 1] = cut[1];
+        }
+        return result;
+    }
+
+    /*
+     * Returns the indices of the longest strictly increasing subsequence of
+     * values[0..count) in O(count log count), using patience sorting.
+     */
+    static int[] longestIncreasingChain(int[] values, int count) {
+        // pileTops[k]: index of the smallest tail of an increasing chain of
+        // length k + 1
+        int[] pileTops = new int[count];
+        int[] predecessor = new int[count];
+        int piles = 0;
+        for (int i = 0; i < count; i++) {
+            int low = 0;
+            int high = piles;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[pileTops[middle]] < values[i])
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            predecessor[i] = low > 0 ? pileTops[low - 1] : -1;
+            pileTops[low] = i;
+            if (low == piles)
+                piles++;
+        }
+        int[] chain = new int[piles];
+        for (int i = piles - 1, k = piles > 0 ? pileTops[piles - 1] : -1; i >= 0; i--) {
+            chain[i] = k;
+            k = predecessor[k];
+        }
+        return chain;
+    }
+
+    /*
+     * Shifts the differences of every segment to the position of the segment
+     * and concatenates them, joining differences that touch at a cut.
+     */
+    private static RangeDifference[] stitch(List<SegmentTask> tasks) {
+        List<RangeDifference> result = new ArrayList<RangeDifference>();
+        RangeDifference last = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            SegmentTask task = tasks.get(i);
+            RangeDifference[] differences = task.getRawResult();
+            for (int j = 0; j < differences.length; j++) {
+                RangeDifference d = differences[j];
+                int rightStart = d.fRightStart + task.rightOffset;
+                int leftStart = d.fLeftStart + task.leftOffset;
+                if (last != null && last.rightEnd() == rightStart
+                        && last.leftEnd() == leftStart) {
+                    last.fRightLength += d.fRightLength;
+                    last.fLeftLength += d.fLeftLength;
+                } else {
+                    last = new RangeDifference(d.kind(), rightStart,
+                            d.fRightLength, leftStart, d.fLeftLength);
+                    result.add(last);
+                }
+            }
+        }
+        return result.toArray(EMPTY_RESULT);
+    }
+
+    /*
+     * Diffs one segment of both sides.
+     */
+    private static class SegmentTask extends RecursiveTask<RangeDifference[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LCSSettings settings;
+
+        private final DiffBudget budget;
+
+        private final ISymbolComparator left, right;
+
+        final int leftOffset, leftLength, rightOffset, rightLength;
+
+        SegmentTask(LCSSettings settings, DiffBudget budget,
+                ISymbolComparator left, int leftOffset, int leftLength,
+                ISymbolComparator right, int rightOffset, int rightLength) {
+            this.settings = settings;
+            this.budget = budget;
+            this.left = left;
+            this.leftOffset = leftOffset;
+            this.leftLength = leftLength;
+            this.right = right;
+            this.rightOffset = rightOffset;
+            this.rightLength = rightLength;
+        }
+
+        @Override
+        protected RangeDifference[] compute() {
+            return RangeDifferencer.findDifferencesSequential(null, settings,
+                    budget, new RangeComparatorSegment(left, leftOffset,
+                            leftLength), new RangeComparatorSegment(right,
+                            rightOffset, rightLength));
+        }
+    }
+
+    /*
+     * Runs all segment tasks and waits for them.
+     */
+    private static class SegmentsTask extends RecursiveTask<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<SegmentTask> tasks;
+
+        SegmentsTask(List<SegmentTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected Object compute() {
+            invokeAll(tasks);
+            return null;
+        }
+    }
+}
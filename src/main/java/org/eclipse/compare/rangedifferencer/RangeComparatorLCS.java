@@ -14,8 +14,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.compare.internal.CompareMessages;
+import org.eclipse.compare.internal.DiffBudget;
 import org.eclipse.compare.internal.LCS;
 import org.eclipse.compare.internal.LCSSettings;
+import org.eclipse.compare.internal.ScratchBuffers;
+import org.eclipse.compare.internal.Snakes;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
@@ -24,17 +27,25 @@ import org.eclipse.core.runtime.SubMonitor;
 
     private final IRangeComparator comparator1, comparator2;
 
+    private final int[] symbols1, symbols2;
+
     private int[][] lcs;
 
+    /** the number of used entries of both rows of lcs */
+    private int lcsLength;
+
     public static RangeDifference[] findDifferences(IProgressMonitor pm,
-            LCSSettings settings, IRangeComparator left, IRangeComparator right) {
+            LCSSettings settings, DiffBudget budget, IRangeComparator left,
+            IRangeComparator right) {
         RangeComparatorLCS lcs = new RangeComparatorLCS(left, right);
         SubMonitor monitor = SubMonitor.convert(pm,
                 CompareMessages.RangeComparatorLCS_0, 100);
         try {
-            lcs.longestCommonSubsequence(monitor.newChild(95), settings);
+            lcs.longestCommonSubsequence(monitor.newChild(95), settings,
+                    budget);
             return lcs.getDifferences(monitor.newChild(5));
         } finally {
+            lcs.releaseLcs();
             if (pm != null)
                 pm.done();
         }
@@ -44,6 +55,8 @@ import org.eclipse.core.runtime.SubMonitor;
             IRangeComparator comparator2) {
         this.comparator1 = comparator1;
         this.comparator2 = comparator2;
+        symbols1 = SymbolTable.symbolsOf(comparator1, comparator2);
+        symbols2 = SymbolTable.symbolsOf(comparator2, comparator1);
     }
 
     @Override
@@ -58,14 +71,39 @@ import org.eclipse.core.runtime.SubMonitor;
 
     @Override
     protected void initializeLcs(int lcsLength) {
-        lcs = new int[2][lcsLength];
+        ScratchBuffers buffers = ScratchBuffers.get();
+        lcs = new int[][] { buffers.acquire(lcsLength),
+                buffers.acquire(lcsLength) };
+        this.lcsLength = lcsLength;
+    }
+
+    /*
+     * Gives the lcs table back to the scratch buffers of this thread.
+     */
+    private void releaseLcs() {
+        if (lcs != null) {
+            ScratchBuffers buffers = ScratchBuffers.get();
+            buffers.release(lcs[0]);
+            buffers.release(lcs[1]);
+            lcs = null;
+        }
     }
 
     @Override
     protected boolean isRangeEqual(int i1, int i2) {
+        if (symbols1 != null)
+            return symbols1[i1] == symbols2[i2];
         return comparator1.rangesEqual(i1, comparator2, i2);
     }
 
+    @Override
+    protected int forwardSnake(int i1, int i2, int max) {
+        if (symbols1 != null)
+            return Snakes.forward(symbols1, i1, i1 + max, symbols2, i2, i2
+                    + max);
+        return super.forwardSnake(i1, i2, max);
+    }
+
     @Override
     protected void setLcs(int sl1, int sl2) {
         // Add one to the values so that 0 can mean that the slot is empty
@@ -88,21 +126,21 @@ import org.eclipse.core.runtime.SubMonitor;
                 int l1, l2;
                 int s1 = -1;
                 int s2 = -1;
-                while (index1 < lcs[0].length && index2 < lcs[1].length) {
+                while (index1 < lcsLength && index2 < lcsLength) {
                     // Move both LCS lists to the next occupied slot
                     while ((l1 = lcs[0][index1]) == 0) {
                         index1++;
-                        if (index1 >= lcs[0].length)
+                        if (index1 >= lcsLength)
                             break;
                     }
-                    if (index1 >= lcs[0].length)
+                    if (index1 >= lcsLength)
                         break;
                     while ((l2 = lcs[1][index2]) == 0) {
                         index2++;
-                        if (index2 >= lcs[1].length)
+                        if (index2 >= lcsLength)
                             break;
                     }
-                    if (index2 >= lcs[1].length)
+                    if (index2 >= lcsLength)
                         break;
                     // Convert the entry to an array index (see setLcs(int,
                     // int))
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+/**
+ * A window of <code>length</code> ranges starting at <code>offset</code> in
+ * another symbol comparator. Lets the engines diff a segment of a long
+ * sequence as if it was a sequence on its own.
+ */
+/* package */class RangeComparatorSegment implements ISymbolComparator {
+
+    private final ISymbolComparator comparator;
+
+    private final int offset;
+
+    private final int length;
+
+    /** the table the copy of the symbols was taken from */
+    private SymbolTable table;
+
+    private int[] symbols;
+
+    RangeComparatorSegment(ISymbolComparator comparator, int offset, int length) {
+        this.comparator = comparator;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int getRangeCount() {
+        return length;
+    }
+
+    public boolean rangesEqual(int thisIndex, IRangeComparator other,
+            int otherIndex) {
+        RangeComparatorSegment segment = (RangeComparatorSegment) other;
+        return comparator.rangesEqual(offset + thisIndex, segment.comparator,
+                segment.offset + otherIndex);
+    }
+
+    public boolean skipRangeComparison(int length, int maxLength,
+            IRangeComparator other) {
+        return comparator.skipRangeComparison(length, maxLength,
+                ((RangeComparatorSegment) other).comparator);
+    }
+
+    public SymbolTable getSymbolTable() {
+        return comparator.getSymbolTable();
+    }
+
+    /**
+     * Re-interns the whole underlying comparator. All its segments take
+     * their symbols from the new table from now on.
+     */
+    public void useSymbolTable(SymbolTable table) {
+        comparator.useSymbolTable(table);
+    }
+
+    /**
+     * Returns the symbols of the segment, copied again when the underlying
+     * comparator moved to another table.
+     */
+    public int[] getSymbols() {
+        SymbolTable current = comparator.getSymbolTable();
+        if (symbols == null || table != current) {
+            symbols = new int[length];
+            System.arraycopy(comparator.getSymbols(), offset, symbols, 0,
+                    length);
+            table = current;
+        }
+        return symbols;
+    }
+}
@@ -11,9 +11,15 @@
 package org.eclipse.compare.rangedifferencer;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.eclipse.compare.internal.CompareMessages;
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.DiffEngine;
 import org.eclipse.compare.internal.LCSSettings;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -104,10 +110,89 @@ public final class RangeDifferencer {
      */
     public static RangeDifference[] findDifferences(IProgressMonitor pm,
             LCSSettings settings, IRangeComparator left, IRangeComparator right) {
-        if (!settings.isUseGreedyMethod()) {
-            return OldDifferencer.findDifferences(pm, left, right);
+        SymbolTable.align(left, right);
+        DiffBudget budget = new DiffBudget(settings);
+        if (settings.getForkJoinPool() != null)
+            return ParallelDifferencer.findDifferences(pm, settings, budget,
+                    left, right);
+        return findDifferencesSequential(pm, settings, budget, left, right);
+    }
+
+    /**
+     * Finds the differences between two <code>IRangeComparator</code>s
+     * lazily. The differences are the same as those of
+     * <code>findDifferences</code> with the same settings, returned in
+     * document order. Without a <code>ForkJoinPool</code> they are all
+     * computed on the first call; with one, long sequences are cut at anchors
+     * as in <code>findDifferences</code> and a segment is diffed in the pool
+     * shortly before the iterator reaches it.
+     *
+     * @param left
+     *                the left range comparator
+     * @param right
+     *                the right range comparator
+     * @return an iterator over the range differences
+     */
+    public static Iterator<RangeDifference> iterateDifferences(
+            LCSSettings settings, IRangeComparator left, IRangeComparator right) {
+        SymbolTable.align(left, right);
+        return new DifferenceIterator(settings, new DiffBudget(settings),
+                left, right);
+    }
+
+    /*
+     * Compares both comparators on the calling thread, pinning long identical
+     * blocks first if they are very long.
+     */
+    static RangeDifference[] findDifferencesSequential(IProgressMonitor pm,
+            LCSSettings settings, DiffBudget budget, IRangeComparator left,
+            IRangeComparator right) {
+        if (BlockMatcher.isApplicable(settings, left, right))
+            return BlockMatcher.findDifferences(pm, settings, budget, left,
+                    right);
+        return runEngine(pm, settings, budget, left, right);
+    }
+
+    /*
+     * Runs the engine of the settings on the whole of both comparators, or
+     * the one chosen for them if the engine is AUTO.
+     */
+    static RangeDifference[] runEngine(IProgressMonitor pm,
+            LCSSettings settings, DiffBudget budget, IRangeComparator left,
+            IRangeComparator right) {
+        // short sequences, such as ancestor chains, get the exact LCS from
+        // the bit-vector differencer, which returns the same ranges as MYERS
+        boolean isShort = BitParallelDifferencer.isApplicable(left, right);
+        DiffEngine engine = settings.getEngine();
+        if (engine == DiffEngine.AUTO)
+            engine = EngineSelector.select(settings, left, right);
+        switch (engine) {
+        case GREEDY:
+            // below tooLong the greedy engine computes an exact LCS as well
+            if (isShort
+                    && (double) left.getRangeCount() * right.getRangeCount() <= settings.getTooLong())
+                return BitParallelDifferencer.findDifferences(left, right);
+            return RangeComparatorLCS.findDifferences(pm, settings, budget,
+                    left, right);
+        case LINEAR_MYERS:
+            return LinearDifferencer.findDifferences(pm, budget, left, right);
+        case HISTOGRAM:
+            return HistogramDifferencer.findDifferences(pm, budget, left,
+                    right);
+        case BANDED:
+            return BandedDifferencer.findDifferences(pm, budget, left, right);
+        case HUNT_SZYMANSKI:
+            return HuntSzymanskiDifferencer.findDifferences(pm, budget, left,
+                    right);
+        default:
+            if (isShort)
+                return BitParallelDifferencer.findDifferences(left, right);
+            // few matching pairs but a large edit distance
+            if (HuntSzymanskiDifferencer.isPreferable(left, right))
+                return HuntSzymanskiDifferencer.findDifferences(pm, budget,
+                        left, right);
+            return OldDifferencer.findDifferences(pm, budget, left, right);
         }
-        return RangeComparatorLCS.findDifferences(pm, settings, left, right);
     }
 
     /**
@@ -160,12 +245,32 @@ public final class RangeDifferencer {
             SubMonitor monitor = SubMonitor.convert(pm,
                     CompareMessages.RangeComparatorLCS_0, 100);
             RangeDifference[] leftAncestorScript = null;
-            RangeDifference[] rightAncestorScript = findDifferences(monitor
-                    .newChild(50), settings, ancestor, right);
-            if (rightAncestorScript != null) {
-                monitor.setWorkRemaining(100);
-                leftAncestorScript = findDifferences(monitor.newChild(50),
-                        settings, ancestor, left);
+            RangeDifference[] rightAncestorScript;
+            if (settings.getExecutor() != null) {
+                CancelingMonitor leftMonitor = new CancelingMonitor(pm);
+                FutureTask<RangeDifference[]> leftTask = forkAncestorScript(
+                        settings, leftMonitor, ancestor, left, right);
+                try {
+                    rightAncestorScript = findDifferences(monitor.newChild(50),
+                            settings, ancestor, right);
+                    // compute it here if the executor did not start it yet
+                    leftTask.run();
+                    leftAncestorScript = getScript(leftTask);
+                } finally {
+                    if (leftAncestorScript == null) {
+                        leftMonitor.setCanceled(true);
+                        leftTask.cancel(false);
+                    }
+                }
+                monitor.worked(50);
+            } else {
+                rightAncestorScript = findDifferences(monitor.newChild(50),
+                        settings, ancestor, right);
+                if (rightAncestorScript != null) {
+                    monitor.setWorkRemaining(100);
+                    leftAncestorScript = findDifferences(monitor.newChild(50),
+                            settings, ancestor, left);
+                }
             }
             if (rightAncestorScript == null || leftAncestorScript == null)
                 return null;
@@ -389,6 +494,104 @@ public final class RangeDifferencer {
 
     // ---- private methods
 
+    /*
+     * Starts computing the script from the ancestor to left with the executor
+     * of the settings, so the script to right can be computed meanwhile. Both
+     * scripts intern into the symbol table of the ancestor, so that is filled
+     * here before the threads share it.
+     */
+    private static FutureTask<RangeDifference[]> forkAncestorScript(
+            final LCSSettings settings, final IProgressMonitor monitor,
+            final IRangeComparator ancestor, final IRangeComparator left,
+            IRangeComparator right) {
+        SymbolTable.align(ancestor, right);
+        SymbolTable.align(ancestor, left);
+        FutureTask<RangeDifference[]> task = new FutureTask<RangeDifference[]>(
+                new Callable<RangeDifference[]>() {
+                    public RangeDifference[] call() {
+                        return findDifferences(monitor, settings, ancestor,
+                                left);
+                    }
+                });
+        settings.getExecutor().execute(task);
+        return task;
+    }
+
+    /*
+     * Waits for the script of a forked task, rethrowing what it threw.
+     */
+    private static RangeDifference[] getScript(
+            FutureTask<RangeDifference[]> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Passes the cancellation of the caller's monitor on to a comparison on
+     * another thread, without its progress, which the monitor need not accept
+     * from other threads. It is also canceled when the caller gives up.
+     */
+    private static class CancelingMonitor implements IProgressMonitor {
+
+        private final IProgressMonitor caller;
+
+        private volatile boolean canceled = false;
+
+        CancelingMonitor(IProgressMonitor caller) {
+            this.caller = caller;
+        }
+
+        public boolean isCanceled() {
+            return canceled || caller != null && caller.isCanceled();
+        }
+
+        public void setCanceled(boolean canceled) {
+            this.canceled = canceled;
+        }
+
+        public void beginTask(String name, int totalWork) {
+            // progress is reported by the caller
+        }
+
+        public void done() {
+            // progress is reported by the caller
+        }
+
+        public void internalWorked(double work) {
+            // progress is reported by the caller
+        }
+
+        public void setTaskName(String name) {
+            // progress is reported by the caller
+        }
+
+        public void subTask(String name) {
+            // progress is reported by the caller
+        }
+
+        public void worked(int work) {
+            // progress is reported by the caller
+        }
+    }
+
     /*
      * Creates a <code>RangeDifference3</code> given the state of two
      * DifferenceIterators.
@@ -460,9 +663,12 @@ public final class RangeDifferencer {
             int rightStart, int rightLen, IRangeComparator left, int leftStart,
             int leftLen) {
         if (rightLen == leftLen) {
+            int[] rightSymbols = SymbolTable.symbolsOf(right, left);
+            int[] leftSymbols = SymbolTable.symbolsOf(left, right);
             int i = 0;
             for (i = 0; i < rightLen; i++) {
-                if (!rangesEqual(right, rightStart + i, left, leftStart + i))
+                if (!SymbolTable.rangesEqual(rightSymbols, right, rightStart
+                        + i, leftSymbols, left, leftStart + i))
                     break;
             }
             if (i == rightLen)
@@ -470,12 +676,4 @@ public final class RangeDifferencer {
         }
         return false;
     }
-
-    /*
-     * Tests if two ranges are equal
-     */
-    private static boolean rangesEqual(IRangeComparator a, int ai,
-            IRangeComparator b, int bi) {
-        return a.rangesEqual(ai, b, bi);
-    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.eclipse.compare.rangedifferencer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns a dense integer symbol to every distinct comparison key. Two
+ * <code>ISymbolComparator</code>s that draw their symbols from the same table
+ * can be compared by symbol instead of calling <code>rangesEqual</code>.
+ * <p>
+ * A table is not thread-safe; all interning must happen before the
+ * differencer starts.
+ *
+ * @see ISymbolComparator
+ */
+public final class SymbolTable {
+
+    private final Map<Object, Integer> symbols = new HashMap<Object, Integer>();
+
+    /**
+     * Returns the symbol for the given key, assigning the next free symbol if
+     * the key has not been seen before.
+     *
+     * @param key
+     *                the normalized comparison key of an entity
+     * @return the symbol of the key
+     */
+    public int intern(Object key) {
+        Integer symbol = symbols.get(key);
+        if (symbol == null) {
+            symbol = Integer.valueOf(symbols.size());
+            symbols.put(key, symbol);
+        }
+        return symbol.intValue();
+    }
+
+    /**
+     * @return the number of distinct symbols handed out so far
+     */
+    public int size() {
+        return symbols.size();
+    }
+
+    /**
+     * Returns <code>true</code> if both comparators provide symbols from the
+     * same table, so that entity equality is symbol equality.
+     */
+    static boolean isShared(IRangeComparator a, IRangeComparator b) {
+        return a instanceof ISymbolComparator
+                && b instanceof ISymbolComparator
+                && ((ISymbolComparator) a).getSymbolTable() == ((ISymbolComparator) b)
+                        .getSymbolTable();
+    }
+
+    /**
+     * Makes <code>b</code> use the symbol table of <code>a</code> if both are
+     * symbol comparators of the same kind that were built independently.
+     */
+    static void align(IRangeComparator a, IRangeComparator b) {
+        if (a instanceof ISymbolComparator && b instanceof ISymbolComparator
+                && a.getClass().equals(b.getClass()) && !isShared(a, b)) {
+            ((ISymbolComparator) b)
+                    .useSymbolTable(((ISymbolComparator) a).getSymbolTable());
+        }
+    }
+
+    /**
+     * Returns the symbols of the given comparator if it shares its table with
+     * the other one, <code>null</code> otherwise.
+     */
+    static int[] symbolsOf(IRangeComparator comparator, IRangeComparator other) {
+        if (isShared(comparator, other))
+            return ((ISymbolComparator) comparator).getSymbols();
+        return null;
+    }
+
+    /**
+     * Tests if two ranges are equal, by symbol if <code>aSymbols</code> and
+     * <code>bSymbols</code> were obtained from {@link #symbolsOf}, through
+     * <code>rangesEqual</code> if they are <code>null</code>.
+     */
+    static boolean rangesEqual(int[] aSymbols, IRangeComparator a, int ai,
+            int[] bSymbols, IRangeComparator b, int bi) {
+        if (aSymbols != null)
+            return aSymbols[ai] == bSymbols[bi];
+        return a.rangesEqual(ai, b, bi);
+    }
+}
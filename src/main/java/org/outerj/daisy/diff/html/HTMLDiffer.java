@@ -15,10 +15,10 @@
  */
 package org.outerj.daisy.diff.html;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Iterator;
 
 import org.eclipse.compare.internal.LCSSettings;
+import org.eclipse.compare.rangedifferencer.PackedDifferences;
 import org.eclipse.compare.rangedifferencer.RangeDifference;
 import org.eclipse.compare.rangedifferencer.RangeDifferencer;
 import org.outerj.daisy.diff.html.modification.ModificationType;
@@ -35,25 +35,41 @@ public class HTMLDiffer implements Differ{
 
     private DiffOutput output;
 
+    private final LCSSettings settings = new LCSSettings();
+
     public HTMLDiffer(DiffOutput dm) {
         output = dm;
+        settings.setUseGreedyMethod(false);
+    }
+
+    /**
+     * The settings of the comparisons, e.g. to choose the engine, to diff long
+     * documents concurrently on a <code>ForkJoinPool</code> or to limit their
+     * time. {@link LCSSettings#isApproximate()} tells whether the last diff ran
+     * out of that budget.
+     * The engine is {@link org.eclipse.compare.internal.DiffEngine#MYERS},
+     * which gives the minimal differences; setting
+     * {@link org.eclipse.compare.internal.DiffEngine#AUTO} trades that for
+     * speed on long documents, with different markup.
+     */
+    public LCSSettings getSettings() {
+        return settings;
     }
 
     public void diff(TextNodeComparator ancestorComparator, TextNodeComparator leftComparator,
     		TextNodeComparator rightComparator) throws SAXException {
     	
-        LCSSettings settings = new LCSSettings();
-        settings.setUseGreedyMethod(false);
-        // settings.setPowLimit(1.5);
-        // settings.setTooLong(100000*100000);
+        settings.setApproximate(false);
     	org.eclipse.compare.rangedifferencer.RangeDifference[] differences = RangeDifferencer.findDifferences(settings, ancestorComparator, leftComparator, rightComparator);
     	
-    	List<RangeDifference> pdifferences = preProcess(differences);
+    	PackedDifferences pdifferences = new PackedDifferences(differences);
+    	preProcess(pdifferences);
     	
     	int currentIndexAncestor = 0;
     	int currentIndexLeft = 0;
     	int currentIndexRight = 0;
-    	for (RangeDifference d : pdifferences) {
+    	PackedDifferences.Cursor d = pdifferences.cursor();
+    	while (d.next()) {
     		
     		int tempKind = d.kind();
     		if (tempKind == RangeDifference.ANCESTOR) {
@@ -113,33 +129,50 @@ public class HTMLDiffer implements Differ{
      */
     public void diff(TextNodeComparator leftComparator,
             TextNodeComparator rightComparator) throws SAXException {
-        LCSSettings settings = new LCSSettings();
-        settings.setUseGreedyMethod(false);
-        // settings.setPowLimit(1.5);
-        // settings.setTooLong(100000*100000);
+        settings.setApproximate(false);
+        Iterator<RangeDifference> differences = RangeDifferencer
+                .iterateDifferences(settings, leftComparator, rightComparator);
 
-        RangeDifference[] differences = RangeDifferencer.findDifferences(
-                settings, leftComparator, rightComparator);
-
-        List<RangeDifference> pdifferences = preProcess(differences);
         int currentIndexLeft = 0;
         int currentIndexRight = 0;
-        for (RangeDifference d : pdifferences) {
+        RangeDifference d = differences.hasNext() ? differences.next() : null;
+        while (d != null) {
+
+            // join the following differences as in preProcess, as they come
+            int kind = d.kind();
+            int leftStart = d.leftStart();
+            int leftEnd = d.leftEnd();
+            int rightStart = d.rightStart();
+            int rightEnd = d.rightEnd();
+            d = null;
+            while (differences.hasNext()) {
+                RangeDifference next = differences.next();
+                if (next.kind() == kind
+                        && joins(leftEnd - leftStart, rightEnd - rightStart,
+                                leftEnd, next.leftLength(), next.rightLength(),
+                                next.leftStart())) {
+                    leftEnd = next.leftEnd();
+                    rightEnd = next.rightEnd();
+                } else {
+                    d = next;
+                    break;
+                }
+            }
 
-            if (d.leftStart() > currentIndexLeft) {
+            if (leftStart > currentIndexLeft) {
                 /* @author Jobayer Ahmmed */
-                // rightComparator.handlePossibleChangedPart(currentIndexLeft, d
-                //         .leftStart(), currentIndexRight, d.rightStart(),
+                // rightComparator.handlePossibleChangedPart(currentIndexLeft,
+                //         leftStart, currentIndexRight, rightStart,
                 //         leftComparator);
             }
-            if (d.leftLength() > 0) {
-                rightComparator.markAsDeleted(d.leftStart(), d.leftEnd(),
-                        leftComparator, d.rightStart(), d.rightEnd());
+            if (leftEnd > leftStart) {
+                rightComparator.markAsDeleted(leftStart, leftEnd,
+                        leftComparator, rightStart, rightEnd);
             }
-            rightComparator.markAsNew(d.rightStart(), d.rightEnd());
+            rightComparator.markAsNew(rightStart, rightEnd);
 
-            currentIndexLeft = d.leftEnd();
-            currentIndexRight = d.rightEnd();
+            currentIndexLeft = leftEnd;
+            currentIndexRight = rightEnd;
         }
         if (currentIndexLeft < leftComparator.getRangeCount()) {
             /* @author Jobayer Ahmmed */
@@ -152,42 +185,41 @@ public class HTMLDiffer implements Differ{
         output.generateOutput(rightComparator.getBodyNode());
     }
 
-    private List<RangeDifference> preProcess(RangeDifference[] differences) {
-
-        List<RangeDifference> newRanges = new LinkedList<RangeDifference>();
-
-        for (int i = 0; i < differences.length; i++) {
-
-        	int ancestorStart = differences[i].ancestorStart();
-        	int ancestorEnd = differences[i].ancestorEnd();
-            int leftStart = differences[i].leftStart();
-            int leftEnd = differences[i].leftEnd();
-            int rightStart = differences[i].rightStart();
-            int rightEnd = differences[i].rightEnd();
-            int kind = differences[i].kind();
-
-            int ancestorLength = ancestorEnd - ancestorStart;
-            int leftLength = leftEnd - leftStart;
-            int rightLength = rightEnd - rightStart;
-
-            while (i + 1 < differences.length
-                    && differences[i + 1].kind() == kind
-                    && score(leftLength, differences[i + 1].leftLength(),
-                            rightLength, differences[i + 1].rightLength()) > (differences[i + 1]
-                            .leftStart() - leftEnd)) {
-                leftEnd = differences[i + 1].leftEnd();
-                rightEnd = differences[i + 1].rightEnd();
-                ancestorEnd = differences[i + 1].ancestorEnd();
-                leftLength = leftEnd - leftStart;
-                rightLength = rightEnd - rightStart;
-                ancestorLength = ancestorEnd - ancestorStart;
+    /*
+     * Joins every hunk with the following ones of the same kind as long as the
+     * score of the joined hunks exceeds the distance between them. Works in
+     * place, the joined hunks are compacted to the front.
+     */
+    private void preProcess(PackedDifferences differences) {
+
+        int count = 0;
+        for (int i = 0; i < differences.size(); i++) {
+
+            differences.move(i, count);
+            int kind = differences.kind(count);
+
+            while (i + 1 < differences.size()
+                    && differences.kind(i + 1) == kind
+                    && joins(differences.leftLength(count), differences
+                            .rightLength(count), differences.leftEnd(count),
+                            differences.leftLength(i + 1), differences
+                                    .rightLength(i + 1), differences
+                                    .leftStart(i + 1))) {
+                differences.extend(count, i + 1);
                 i++;
             }
-
-            newRanges.add(new RangeDifference(kind, rightStart, rightLength, leftStart, leftLength, ancestorStart, ancestorLength));
+            count++;
         }
+        differences.truncate(count);
+    }
 
-        return newRanges;
+    /*
+     * Returns whether a hunk is joined with the next one of the same kind:
+     * when the score of their lengths exceeds the distance between them.
+     */
+    private static boolean joins(int leftLength, int rightLength, int leftEnd,
+            int nextLeftLength, int nextRightLength, int nextLeftStart) {
+        return score(leftLength, nextLeftLength, rightLength, nextRightLength) > (nextLeftStart - leftEnd);
     }
 
     public static double score(int... numbers) {
@@ -197,14 +229,34 @@ public class HTMLDiffer implements Differ{
 
         double d = 0;
         for (double number : numbers) {
-            while (number > 3) {
-                d += 3;
-                number -= 3;
-                number *= 0.5;
-            }
-            d += number;
-
+            d = addScore(d, number);
         }
         return d / (1.5 * numbers.length);
     }
+
+    /**
+     * The score of the lengths of two hunks, like {@link #score(int...)} but
+     * without the array.
+     */
+    public static double score(int leftLength, int nextLeftLength,
+            int rightLength, int nextRightLength) {
+        if ((leftLength == 0 && nextLeftLength == 0)
+                || (rightLength == 0 && nextRightLength == 0))
+            return 0;
+
+        double d = addScore(0, leftLength);
+        d = addScore(d, nextLeftLength);
+        d = addScore(d, rightLength);
+        d = addScore(d, nextRightLength);
+        return d / (1.5 * 4);
+    }
+
+    private static double addScore(double d, double number) {
+        while (number > 3) {
+            d += 3;
+            number -= 3;
+            number *= 0.5;
+        }
+        return d + number;
+    }
 }
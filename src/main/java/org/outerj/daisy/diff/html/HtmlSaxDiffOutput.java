@@ -162,12 +162,10 @@ public class HtmlSaxDiffOutput implements DiffOutput {
                     conflictStarted = true;
                 }
 
-                char[] chars = textChild.getText().toCharArray();
-
                 if (textChild instanceof ImageNode) {
                     writeImage((ImageNode)textChild);
                 } else {
-                    handler.characters(chars, 0, chars.length);
+                    textChild.getTextSlice().writeTo(handler);
                 }
 
             }
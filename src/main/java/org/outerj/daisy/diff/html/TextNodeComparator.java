@@ -16,12 +16,13 @@
 package org.outerj.daisy.diff.html;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
 import org.eclipse.compare.rangedifferencer.IRangeComparator;
+import org.eclipse.compare.rangedifferencer.ISymbolComparator;
+import org.eclipse.compare.rangedifferencer.SymbolTable;
 import org.outerj.daisy.diff.html.ancestor.AncestorComparator;
 import org.outerj.daisy.diff.html.ancestor.AncestorComparatorResult;
 import org.outerj.daisy.diff.html.dom.BodyNode;
@@ -38,7 +39,7 @@ import org.outerj.daisy.diff.html.modification.ModificationType;
  * Then it can be used to compute the difference between DOM trees and mark
  * elements accordingly.
  */
-public class TextNodeComparator implements IRangeComparator, Iterable<TextNode> {
+public class TextNodeComparator implements ISymbolComparator, Iterable<TextNode> {
 
     private List<TextNode> textNodes = new ArrayList<TextNode>(50);
 
@@ -48,11 +49,30 @@ public class TextNodeComparator implements IRangeComparator, Iterable<TextNode>
 
     private Locale locale;
 
+    private SymbolTable symbolTable;
+
+    /**
+     * The interned {@link TextNode#getSymbolKey()} of every text node, so that
+     * {@link #rangesEqual(int, IRangeComparator, int)} only compares ints.
+     */
+    private int[] symbols;
+
     public TextNodeComparator(DomTree tree, Locale locale) {
+        this(tree, locale, new SymbolTable());
+    }
+
+    /**
+     * Creates a comparator that interns its text nodes into the given table.
+     * Comparators built with the same table can be compared without
+     * re-interning.
+     */
+    public TextNodeComparator(DomTree tree, Locale locale,
+            SymbolTable symbolTable) {
         super();
         this.locale = locale;
         textNodes = tree.getTextNodes();
         bodyNode = tree.getBodyNode();
+        useSymbolTable(symbolTable);
     }
 
     public BodyNode getBodyNode() {
@@ -115,16 +135,34 @@ public class TextNodeComparator implements IRangeComparator, Iterable<TextNode>
     }
 
     public boolean rangesEqual(int i1, IRangeComparator rangeComp, int i2) {
-        TextNodeComparator comp;
-        try {
-            comp = (TextNodeComparator) rangeComp;
-        } catch (RuntimeException e) {
+        if (!(rangeComp instanceof TextNodeComparator))
             return false;
-        }
+        TextNodeComparator comp = (TextNodeComparator) rangeComp;
 
+        if (comp.symbolTable == symbolTable)
+            return symbols[i1] == comp.symbols[i2];
         return getTextNode(i1).isSameText(comp.getTextNode(i2));
     }
 
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    public void useSymbolTable(SymbolTable table) {
+        if (table == symbolTable)
+            return;
+        int[] newSymbols = new int[textNodes.size()];
+        for (int i = 0; i < newSymbols.length; i++) {
+            newSymbols[i] = table.intern(textNodes.get(i).getSymbolKey());
+        }
+        symbols = newSymbols;
+        symbolTable = table;
+    }
+
+    public int[] getSymbols() {
+        return symbols;
+    }
+
     public boolean skipRangeComparison(int arg0, int arg1, IRangeComparator arg2) {
         return false;
     }
@@ -271,8 +309,8 @@ boolean useAfter = false;
             
             LastCommonParentResult orderResult = getTextNode(before).getLastCommonParent(getTextNode(after));
             List<TagNode> check = getTextNode(before).getParentTree();
-            Collections.reverse(check);
-            for(TagNode curr : check) {
+            for (int k = check.size() - 1; k >= 0; k--) {
+                TagNode curr = check.get(k);
                 if(curr == orderResult.getLastCommonParent()) {
                     break;
                 } else if (curr.isBlockLevel()) {
@@ -282,8 +320,8 @@ boolean useAfter = false;
             }
             if(!useAfter) {
                 check = getTextNode(after).getParentTree();
-                Collections.reverse(check);
-                for(TagNode curr : check) {
+                for (int k = check.size() - 1; k >= 0; k--) {
+                    TagNode curr = check.get(k);
                     if(curr == orderResult.getLastCommonParent()) {
                         break;
                     } else if (curr.isBlockLevel()) {
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.outerj.daisy.diff.html.dom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A document as built by {@link CompactDomTreeBuilder}: the nodes are
+ * numbered in the order they were created, the body being 0, and stored in
+ * primitive arrays instead of <code>Node</code> objects. Tag names and
+ * attribute sets are interned, so every distinct one is stored once, and
+ * texts are ranges of one {@link TextBuffer}.
+ * <p>
+ * The differ marks, moves and splits <code>Node</code> objects, so a document
+ * still has to be turned into its node tree with {@link #createDomTree()}
+ * before it is compared, which takes as much memory as building it with a
+ * {@link DomTreeBuilder}. The compact form only saves memory on documents that
+ * are kept parsed while they are not being compared.
+ */
+public final class CompactDomTree {
+
+    /** the kinds of nodes, in the low bits of the flags */
+    public static final int TAG = 0;
+
+    public static final int TEXT = 1;
+
+    public static final int IMAGE = 2;
+
+    public static final int SEPARATOR = 3;
+
+    private static final int KIND_MASK = 3;
+
+    private static final int WHITE_BEFORE = 4;
+
+    private static final int WHITE_AFTER = 8;
+
+    /** the text is in {@link TextBuffer#ASCII} */
+    private static final int SHARED_TEXT = 16;
+
+    private static final int NONE = -1;
+
+    private int size = 0;
+
+    private int[] parent = new int[256];
+
+    private int[] firstChild = new int[256];
+
+    private int[] lastChild = new int[256];
+
+    private int[] nextSibling = new int[256];
+
+    private byte[] flags = new byte[256];
+
+    /** the tag name id of tags, the text offset of text nodes */
+    private int[] nameOrOffset = new int[256];
+
+    /** the attribute set id of tags and images, the text length of texts */
+    private int[] attributesOrLength = new int[256];
+
+    /** the text nodes, images and separators in document order */
+    private int[] leafs = new int[256];
+
+    private int leafCount = 0;
+
+    private final List<String> tagNames = new ArrayList<String>();
+
+    private final List<Attributes> attributeSets = new ArrayList<Attributes>();
+
+    // the indexes of both, only needed while building
+    private Map<String, Integer> tagIds = new HashMap<String, Integer>();
+
+    private Map<List<String>, Integer> attributeSetIds = new HashMap<List<String>, Integer>();
+
+    private final TextBuffer text;
+
+    CompactDomTree(TextBuffer text) {
+        this.text = text;
+        addNode(NONE, TAG);
+        nameOrOffset[0] = internTagName("body");
+        attributesOrLength[0] = internAttributes(new AttributesImpl());
+    }
+
+    /**
+     * Returns the number of nodes, including the body.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getKind(int node) {
+        return flags[node] & KIND_MASK;
+    }
+
+    /**
+     * Returns the parent of the node, -1 for the body.
+     */
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * Returns the first child of the node, -1 if it has none.
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * Returns the next child of the parent of the node, -1 if it is the last.
+     */
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    public String getQName(int node) {
+        return tagNames.get(nameOrOffset[node]);
+    }
+
+    /**
+     * Returns the attributes of a tag, or of the image tag of an image. Nodes
+     * with equal attributes share the same instance, which must not be
+     * modified.
+     */
+    public Attributes getAttributes(int node) {
+        return attributeSets.get(attributesOrLength[node]);
+    }
+
+    public TextSlice getText(int node) {
+        return new TextSlice(getBuffer(node), nameOrOffset[node],
+                attributesOrLength[node]);
+    }
+
+    public boolean isWhiteBefore(int node) {
+        return (flags[node] & WHITE_BEFORE) != 0;
+    }
+
+    public boolean isWhiteAfter(int node) {
+        return (flags[node] & WHITE_AFTER) != 0;
+    }
+
+    /**
+     * Returns the number of text nodes, images and separators.
+     */
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Returns the i-th text node, image or separator in document order.
+     */
+    public int getLeaf(int i) {
+        return leafs[i];
+    }
+
+    /**
+     * Creates the <code>Node</code> tree of the document, a new one on every
+     * call since the differ modifies the nodes it compares.
+     */
+    public DomTree createDomTree() {
+        Node[] nodes = new Node[size];
+        final BodyNode bodyNode = new BodyNode();
+        nodes[0] = bodyNode;
+        // the nodes are numbered in the order they were parsed, so every
+        // parent gets its children in the same order as from a DomTreeBuilder
+        for (int i = 1; i < size; i++) {
+            TagNode parentNode = (TagNode) nodes[parent[i]];
+            Node node;
+            switch (getKind(i)) {
+            case TAG:
+                node = new TagNode(parentNode, getQName(i), getAttributes(i));
+                break;
+            case TEXT:
+                node = new TextNode(parentNode, getBuffer(i),
+                        nameOrOffset[i], attributesOrLength[i]);
+                break;
+            case IMAGE:
+                node = new ImageNode(parentNode, parentNode.getAttributes());
+                break;
+            default:
+                node = new SeparatingNode(parentNode);
+            }
+            node.setWhiteBefore(isWhiteBefore(i));
+            node.setWhiteAfter(isWhiteAfter(i));
+            nodes[i] = node;
+        }
+        final List<TextNode> textNodes = new ArrayList<TextNode>(leafCount);
+        for (int i = 0; i < leafCount; i++)
+            textNodes.add((TextNode) nodes[leafs[i]]);
+        return new DomTree() {
+
+            public BodyNode getBodyNode() {
+                return bodyNode;
+            }
+
+            public List<TextNode> getTextNodes() {
+                return textNodes;
+            }
+        };
+    }
+
+    TextBuffer getDocumentText() {
+        return text;
+    }
+
+    private TextBuffer getBuffer(int node) {
+        return (flags[node] & SHARED_TEXT) != 0 ? TextBuffer.ASCII : text;
+    }
+
+    int addTag(int parentNode, String qName, Attributes attributes) {
+        int node = addNode(parentNode, TAG);
+        nameOrOffset[node] = internTagName(qName);
+        attributesOrLength[node] = internAttributes(attributes);
+        return node;
+    }
+
+    /**
+     * Adds a text node for a range of the document buffer, or of the shared
+     * one if <code>shared</code>.
+     */
+    int addText(int parentNode, boolean shared, int offset, int length) {
+        int node = addNode(parentNode, TEXT);
+        if (shared)
+            flags[node] |= SHARED_TEXT;
+        nameOrOffset[node] = offset;
+        attributesOrLength[node] = length;
+        addLeaf(node);
+        return node;
+    }
+
+    int addImage(int parentNode) {
+        int node = addNode(parentNode, IMAGE);
+        attributesOrLength[node] = attributesOrLength[parentNode];
+        addLeaf(node);
+        return node;
+    }
+
+    int addSeparator(int parentNode) {
+        int node = addNode(parentNode, SEPARATOR);
+        addLeaf(node);
+        return node;
+    }
+
+    void setWhiteBefore(int node, boolean whiteBefore) {
+        setFlag(node, WHITE_BEFORE, whiteBefore);
+    }
+
+    void setWhiteAfter(int node, boolean whiteAfter) {
+        setFlag(node, WHITE_AFTER, whiteAfter);
+    }
+
+    /**
+     * Releases the capacity reserved for more nodes and what is only needed
+     * while building, once the document is complete.
+     */
+    void trimToSize() {
+        resize(size);
+        lastChild = null;
+        tagIds = null;
+        attributeSetIds = null;
+        leafs = Arrays.copyOf(leafs, leafCount);
+        text.trimToSize();
+    }
+
+    private void setFlag(int node, int flag, boolean value) {
+        if (value)
+            flags[node] |= flag;
+        else
+            flags[node] &= ~flag;
+    }
+
+    private int addNode(int parentNode, int kind) {
+        if (size == parent.length)
+            resize(size * 2);
+        int node = size++;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        nextSibling[node] = NONE;
+        flags[node] = (byte) kind;
+        if (parentNode != NONE) {
+            if (lastChild[parentNode] == NONE)
+                firstChild[parentNode] = node;
+            else
+                nextSibling[lastChild[parentNode]] = node;
+            lastChild[parentNode] = node;
+        }
+        return node;
+    }
+
+    private void addLeaf(int node) {
+        if (leafCount == leafs.length)
+            leafs = Arrays.copyOf(leafs, leafCount * 2);
+        leafs[leafCount++] = node;
+    }
+
+    private void resize(int capacity) {
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        nameOrOffset = Arrays.copyOf(nameOrOffset, capacity);
+        attributesOrLength = Arrays.copyOf(attributesOrLength, capacity);
+    }
+
+    private int internTagName(String qName) {
+        Integer id = tagIds.get(qName);
+        if (id == null) {
+            id = Integer.valueOf(tagNames.size());
+            tagNames.add(qName);
+            tagIds.put(qName, id);
+        }
+        return id.intValue();
+    }
+
+    private int internAttributes(Attributes attributes) {
+        List<String> key = new ArrayList<String>(attributes.getLength() * 5);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            key.add(attributes.getURI(i));
+            key.add(attributes.getLocalName(i));
+            key.add(attributes.getQName(i));
+            key.add(attributes.getType(i));
+            key.add(attributes.getValue(i));
+        }
+        Integer id = attributeSetIds.get(key);
+        if (id == null) {
+            id = Integer.valueOf(attributeSets.size());
+            attributeSets.add(new AttributesImpl(attributes));
+            attributeSetIds.put(key, id);
+        }
+        return id.intValue();
+    }
+}
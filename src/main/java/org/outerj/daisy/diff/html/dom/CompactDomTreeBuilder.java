@@ -0,0 +1,97 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.outerj.daisy.diff.html.dom;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Builds a {@link CompactDomTree} from the same SAX events and with the same
+ * tokenization as {@link DomTreeBuilder}, for documents too large to keep as
+ * <code>Node</code> objects.
+ */
+public class CompactDomTreeBuilder extends DomTreeTokenizer<Integer> {
+
+    private final CompactDomTree tree;
+
+    public CompactDomTreeBuilder() {
+        this(new CompactDomTree(new TextBuffer()));
+    }
+
+    private CompactDomTreeBuilder(CompactDomTree tree) {
+        super(new TreeSink(tree), tree.getDocumentText());
+        this.tree = tree;
+    }
+
+    /**
+     * Returns the compact document, complete once the document ended.
+     */
+    public CompactDomTree getTree() {
+        return tree;
+    }
+
+    private static class TreeSink implements DomTreeSink<Integer> {
+
+        private final CompactDomTree tree;
+
+        TreeSink(CompactDomTree tree) {
+            this.tree = tree;
+        }
+
+        public Integer getBody() {
+            return Integer.valueOf(0);
+        }
+
+        public Integer addTag(Integer parent, String qName,
+                Attributes attributes) {
+            return Integer.valueOf(tree.addTag(parent.intValue(), qName,
+                    attributes));
+        }
+
+        public Integer getParent(Integer tag) {
+            return Integer.valueOf(tree.getParent(tag.intValue()));
+        }
+
+        public String getQName(Integer tag) {
+            return tree.getQName(tag.intValue());
+        }
+
+        public Integer addText(Integer parent, TextBuffer buffer, int offset,
+                int length) {
+            return Integer.valueOf(tree.addText(parent.intValue(),
+                    buffer == TextBuffer.ASCII, offset, length));
+        }
+
+        public Integer addImage(Integer parent) {
+            return Integer.valueOf(tree.addImage(parent.intValue()));
+        }
+
+        public void addSeparator(Integer parent) {
+            tree.addSeparator(parent.intValue());
+        }
+
+        public void setWhiteBefore(Integer node, boolean whiteBefore) {
+            tree.setWhiteBefore(node.intValue(), whiteBefore);
+        }
+
+        public void setWhiteAfter(Integer node, boolean whiteAfter) {
+            tree.setWhiteAfter(node.intValue(), whiteAfter);
+        }
+
+        public void endDocument() {
+            tree.trimToSize();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.outerj.daisy.diff.html.dom;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Stores the nodes {@link DomTreeTokenizer} finds in a document, as
+ * <code>Node</code> objects or in another representation. The nodes are
+ * added in document order, every one as the last child of its parent.
+ *
+ * @param <N>
+ *            the handle of a stored node
+ */
+/* package */interface DomTreeSink<N> {
+
+    /**
+     * Returns the body, the parent of the top level nodes.
+     */
+    N getBody();
+
+    N addTag(N parent, String qName, Attributes attributes);
+
+    N getParent(N tag);
+
+    String getQName(N tag);
+
+    /**
+     * Adds a text node for a range of the given buffer, which is the one of
+     * the document or {@link TextBuffer#ASCII}.
+     */
+    N addText(N parent, TextBuffer buffer, int offset, int length);
+
+    /**
+     * Adds the leaf of an image, which has the attributes of its parent.
+     */
+    N addImage(N parent);
+
+    void addSeparator(N parent);
+
+    void setWhiteBefore(N node, boolean whiteBefore);
+
+    void setWhiteAfter(N node, boolean whiteAfter);
+
+    /**
+     * Called once all nodes are added.
+     */
+    void endDocument();
+}
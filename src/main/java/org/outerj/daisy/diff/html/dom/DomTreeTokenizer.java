@@ -0,0 +1,227 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.outerj.daisy.diff.html.dom;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Splits the body of a document into tags, words, delimiters, images and
+ * separators from its SAX events, and hands them to a {@link DomTreeSink}.
+ * The builders of the different document models only differ in their sink.
+ *
+ * @param <N>
+ *            the handle of a node in the sink
+ */
+/* package */class DomTreeTokenizer<N> extends DefaultHandler {
+
+    private final DomTreeSink<N> sink;
+
+    /** the characters of all words of the document */
+    private final TextBuffer text;
+
+    private N currentParent;
+
+    /** the offset in text of the word being parsed */
+    private int wordStart = 0;
+
+    protected boolean documentStarted = false;
+
+    protected boolean documentEnded = false;
+
+    protected boolean bodyStarted = false;
+
+    protected boolean bodyEnded = false;
+
+    private boolean whiteSpaceBeforeThis = false;
+
+    /** When greater than 0, this indicates that the node being parsed is a descendant of a pre tag. */
+    private int numberOfActivePreTags = 0; // calculating this as required for every node is expensive.
+
+    private N lastSibling = null;
+
+    /** whether a text node, image or separator was added */
+    private boolean hasLeafs = false;
+
+    /** whether the last text node, image or separator is a separator */
+    private boolean lastLeafIsSeparator = false;
+
+    DomTreeTokenizer(DomTreeSink<N> sink, TextBuffer text) {
+        this.sink = sink;
+        this.text = text;
+        currentParent = sink.getBody();
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        if (documentStarted)
+            throw new IllegalStateException(
+                    "This Handler only accepts one document");
+        documentStarted = true;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        if (!documentStarted || documentEnded)
+            throw new IllegalStateException();
+        endWord();
+        sink.endDocument();
+        documentEnded = true;
+        documentStarted = false;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+            Attributes attributes) throws SAXException {
+
+        if (!documentStarted || documentEnded)
+            throw new IllegalStateException();
+
+        if (bodyStarted && !bodyEnded) {
+            endWord();
+
+            N newTag = sink.addTag(currentParent, localName, attributes);
+            currentParent = newTag;
+            lastSibling = null;
+            if (whiteSpaceBeforeThis && TagNode.isInline(localName)) {
+                sink.setWhiteBefore(newTag, true);
+            }
+            whiteSpaceBeforeThis = false;
+            if (localName.equalsIgnoreCase("pre")) {
+                numberOfActivePreTags++;
+            }
+            if (isSeparatingTag(localName)) {
+                addSeparatorNode();
+            }
+
+        } else if (bodyStarted) {
+            // Ignoring element after body tag closed
+        } else if (localName.equalsIgnoreCase("body")) {
+            bodyStarted = true;
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+
+        if (!documentStarted || documentEnded)
+            throw new IllegalStateException();
+
+        if (localName.equalsIgnoreCase("body")) {
+            bodyEnded = true;
+        } else if (bodyStarted && !bodyEnded) {
+            if (localName.equalsIgnoreCase("img")) {
+                // Insert a dummy leaf for the image
+                N img = sink.addImage(currentParent);
+                sink.setWhiteBefore(img, whiteSpaceBeforeThis);
+                lastSibling = img;
+                addedLeaf(false);
+            }
+            endWord();
+            String currentName = sink.getQName(currentParent);
+            if (TagNode.isInline(currentName)) {
+                lastSibling = currentParent;
+            } else {
+                lastSibling = null;
+            }
+            if (localName.equalsIgnoreCase("pre")) {
+                numberOfActivePreTags--;
+            }
+            if (isSeparatingTag(currentName)) {
+                addSeparatorNode();
+            }
+            currentParent = sink.getParent(currentParent);
+            whiteSpaceBeforeThis = false;
+        }
+    }
+
+    @Override
+    public void characters(char ch[], int start, int length)
+            throws SAXException {
+
+        if (!documentStarted || documentEnded)
+            throw new IllegalStateException();
+
+        for (int i = start; i < start + length; i++) {
+            char c = ch[i];
+            if (DomTreeBuilder.isDelimiter(c)) {
+                endWord();
+                if (WhiteSpaceNode.isWhiteSpace(c) && numberOfActivePreTags == 0) {
+                    if (lastSibling != null)
+                        sink.setWhiteAfter(lastSibling, true);
+                    whiteSpaceBeforeThis = true;
+                } else {
+                    // all delimiters are ASCII: their text is shared
+                    N textNode = sink.addText(currentParent, TextBuffer.ASCII,
+                            c, 1);
+                    sink.setWhiteBefore(textNode, whiteSpaceBeforeThis);
+                    whiteSpaceBeforeThis = false;
+                    lastSibling = textNode;
+                    addedLeaf(false);
+                }
+            } else {
+                text.append(c);
+            }
+
+        }
+    }
+
+    private void endWord() {
+        if (text.length() > wordStart) {
+            N node = sink.addText(currentParent, text, wordStart, text
+                    .length()
+                    - wordStart);
+            sink.setWhiteBefore(node, whiteSpaceBeforeThis);
+            whiteSpaceBeforeThis = false;
+            lastSibling = node;
+            addedLeaf(false);
+            wordStart = text.length();
+        }
+    }
+
+    private void addedLeaf(boolean separator) {
+        hasLeafs = true;
+        lastLeafIsSeparator = separator;
+    }
+
+    /**
+     * Returns <code>true</code> if the given tag separates text nodes
+     * from being successive. I.e. every block starts a new distinct text flow.
+     */
+    private boolean isSeparatingTag(String qName) {
+        // treat all block tags as separating
+        return TagNode.isBlockLevel(qName);
+    }
+
+    /**
+     * Ensures that a separator is added after the last text node.
+     */
+    private void addSeparatorNode() {
+        if (!hasLeafs) {
+            return;
+        }
+
+        // don't add multiple separators
+        if (lastLeafIsSeparator) {
+            return;
+        }
+
+        sink.addSeparator(currentParent);
+        addedLeaf(true);
+    }
+}
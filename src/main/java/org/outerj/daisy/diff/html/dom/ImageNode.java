@@ -31,6 +31,11 @@ public class ImageNode extends TextNode {
         attributes = new AttributesImpl(attrs);
     }
 
+    @Override
+    public Object getSymbolKey() {
+        return getText().toLowerCase();
+    }
+
     @Override
     public boolean isSameText(Object other) {
         if (other == null)
@@ -15,7 +15,6 @@
  */
 package org.outerj.daisy.diff.html.dom;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -29,6 +28,12 @@ public abstract class Node {
     protected TagNode parent;
     private TagNode root;
 
+    /**
+     * The index of this node among the children of its parent, numbered and
+     * checked by the parent, see {@link TagNode#getIndexOf(Node)}.
+     */
+    int indexInParent = -1;
+
     /**
      * This constructor not only sets the parameter as the parent for the
      * created node, but also appends the created node to the collection
@@ -58,16 +63,24 @@ public abstract class Node {
      * that is ordered starting from the root by the depth.
      * Index of an element in that list corresponds its depth
      * (if depth of the root is 0)
+     * The list is cached by the parent and shared with its other children,
+     * so it is unmodifiable.
      * @return ordered by depth list of the ancestors or an empty
      * <code>List&lt;TagNode></code> if the parent is null.
      */
     public List<TagNode> getParentTree() {
-        List<TagNode> ancestors = new ArrayList<TagNode>();
-        for (TagNode ancestor = getParent(); ancestor != null; ancestor = ancestor.getParent()) {
-            ancestors.add(ancestor);
-        }
-        Collections.reverse(ancestors);
-        return ancestors;
+        if (parent == null)
+            return Collections.emptyList();
+        return parent.getPathToThis();
+    }
+
+    /**
+     * @return the number of ancestors of this node, 0 for the root
+     */
+    public int getDepth() {
+        if (parent == null)
+            return 0;
+        return parent.getPathToThis().size();
     }
 
     //change for correct insertion of the deleted nodes
@@ -117,16 +130,9 @@ public abstract class Node {
         List<TagNode> myParents = getParentTree();
         List<TagNode> otherParents = other.getParentTree();
 
-        int i = 1;
-        boolean isSame = true;
-        while (isSame && i < myParents.size() && i < otherParents.size()) {
-            if (!myParents.get(i).isSameTag(otherParents.get(i))) {
-                isSame = false;
-            } else {
-                // After the while, the index i-1 must be the last common parent
-                i++;
-            }
-        }
+        // the index i-1 is the last common parent
+        int i = getLastCommonDepth(myParents, otherParents) + 1;
+        boolean isSame = i >= myParents.size() || i >= otherParents.size();
  
         result.setLastCommonParentDepth(i - 1);
         result.setLastCommonParent(myParents.get(i - 1));
@@ -154,6 +160,48 @@ public abstract class Node {
         return result;
     }
 
+    /**
+     * Finds the deepest index up to which the ancestors of both nodes are the
+     * same tags, the roots always counting as the same. The matching indexes
+     * form a prefix of the paths, so they are binary searched: by identity
+     * within one tree, by path fingerprint across trees, with the tags at the
+     * boundary verified to be the same and different. Should a fingerprint
+     * mislead, the paths are compared tag by tag instead.
+     * @return the depth of the last common parent
+     */
+    private static int getLastCommonDepth(List<TagNode> myParents,
+            List<TagNode> otherParents) {
+        int size = Math.min(myParents.size(), otherParents.size());
+        if (size < 2)
+            return 0;
+        boolean sameTree = myParents.get(0).getRoot() == otherParents.get(0)
+                .getRoot();
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            TagNode mine = myParents.get(middle);
+            TagNode others = otherParents.get(middle);
+            boolean same = sameTree ? mine == others
+                    : mine.getPathFingerprint() == others.getPathFingerprint();
+            if (same)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        if (sameTree)
+            return low;
+        if ((low == 0 || myParents.get(low).isSameTag(otherParents.get(low)))
+                && (low + 1 == size || !myParents.get(low + 1).isSameTag(
+                        otherParents.get(low + 1))))
+            return low;
+
+        int i = 1;
+        while (i < size && myParents.get(i).isSameTag(otherParents.get(i)))
+            i++;
+        return i - 1;
+    }
+
     /**
      * changes the parent field of this node. Does NOT append/remove
      * itself from the previous or the new parent children collection.
@@ -163,13 +211,27 @@ public abstract class Node {
         this.parent = parent;
         if (parent != null)
             setRoot(parent.getRoot());
+        else
+            ancestorsChanged();
     }
 
+    /**
+     * Sets the root of this node and, for tags, of all descendants. The
+     * ancestors of all of them may have changed.
+     */
     protected void setRoot(TagNode root)
     {
         this.root = root;
     }
 
+    /**
+     * Drops what is cached about the ancestors of this node and its
+     * descendants.
+     */
+    protected void ancestorsChanged() {
+        // text nodes cache nothing
+    }
+
     public abstract Node copyTree();
 
     /**
@@ -178,8 +240,9 @@ public abstract class Node {
      * where this node is &lt;pre> tag)
      */
     public boolean inPre() {
-        for (TagNode ancestor : getParentTree()) {
-            if (ancestor.isPre()) {
+        List<TagNode> ancestors = getParentTree();
+        for (int i = 0; i < ancestors.size(); i++) {
+            if (ancestors.get(i).isPre()) {
                 return true;
             }
         }
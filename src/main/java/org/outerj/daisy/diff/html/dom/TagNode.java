@@ -19,6 +19,7 @@ import java.util.*;
 
 import org.outerj.daisy.diff.html.ancestor.TextOnlyComparator;
 import org.outerj.daisy.diff.html.dom.helper.AttributesMap;
+import org.outerj.daisy.diff.html.dom.helper.CanonicalValues;
 import org.xml.sax.Attributes;
 import org.xml.sax.helpers.AttributesImpl;
 
@@ -30,20 +31,62 @@ public class TagNode extends Node implements Iterable<Node> {
 
     private List<Node> children = new ArrayList<Node>();
 
+    /**
+     * The number of first children whose index in this node is cached by
+     * them. Appending keeps all children numbered, inserting or removing
+     * one only drops the numbers from its index on, which are renumbered
+     * when asked for.
+     */
+    private int numberedChildren = 0;
+
     private String qName;
 
     private final Attributes attributes;
 
     /**
-     * Attributes objects are unmodifiable and {@link #attributes} is final, so we can usefully cache the
-     * equality of ours to others.
+     * The ancestors of this node followed by itself, which are the ancestors
+     * of all its children. Computed on demand from the one of the parent and
+     * dropped when this node or one of its ancestors is moved.
+     */
+    private List<TagNode> pathToThis = null;
+
+    /**
+     * The fingerprint of the tags of {@link #pathToThis} below the root,
+     * valid along with it.
+     */
+    private long pathFingerprint;
+
+    /**
+     * The fingerprint of the name and attributes, see {@link #getFingerprint()}.
+     */
+    private final long fingerprint;
+
+    /**
+     * Whether no two attribute names are the same ignoring case, so that
+     * different fingerprints rule out similarity.
      */
-    private IdentityHashMap<Attributes, Boolean> attributesEqualityTests = new IdentityHashMap<Attributes, Boolean>();
+    private final boolean fingerprintExact;
 
     public TagNode(TagNode parent, String qName, Attributes attributesarg) {
         super(parent);
         this.qName = qName;
         attributes = new AttributesImpl(attributesarg);
+
+        long result = hashIgnoreCase(qName);
+        AttributesMap attrs = getAttributesMap();
+        for (Map.Entry<String, String> attr : attrs.entrySet()) {
+            String name = attr.getKey();
+            String value = attr.getValue();
+            if (name.equals("style")) {
+                value = CanonicalValues.STYLES.get(value);
+            } else if (name.equals("class")) {
+                value = CanonicalValues.CLASSES.get(value);
+            }
+            // summed, as the attributes are not ordered
+            result += mix(hash(name) * 31 + hash(value));
+        }
+        fingerprint = mix(result);
+        fingerprintExact = attrs.size() == attributes.getLength();
     }
 
     /**
@@ -60,19 +103,129 @@ public class TagNode extends Node implements Iterable<Node> {
 			throw new IllegalStateException(
                     "The new child must have this node as a parent.");
 		}
+        if (numberedChildren == children.size()) {
+            node.indexInParent = numberedChildren++;
+        }
         children.add(node);
     }
 
+    /**
+     * Inserts the provided nodes in the collection of children at the
+     * specified index, in one move of the following children.
+     * @param index - desired position of the first node among the children
+     * @param nodes - the nodes to insert as children
+     * @throws java.lang.IllegalStateException - if a provided node has
+     * different parent from <code>this</code> node.
+     */
+    public void addChildren(int index, List<? extends Node> nodes) {
+        for (Node node : nodes) {
+            if (node.getParent() != this) {
+                throw new IllegalStateException(
+                        "The new child must have this node as a parent.");
+            }
+        }
+        children.addAll(index, nodes);
+        childrenChanged(index);
+    }
+
     @Override
     protected void setRoot(TagNode root)
     {
         super.setRoot(root);
+        pathToThis = null;
         for (Node child : children)
         {
             child.setRoot(root);
         }
     }
 
+    @Override
+    protected void ancestorsChanged() {
+        pathToThis = null;
+        for (Node child : children) {
+            child.ancestorsChanged();
+        }
+    }
+
+    /**
+     * @return the unmodifiable list of the ancestors of this node, from the
+     * root on, followed by this node itself
+     */
+    List<TagNode> getPathToThis() {
+        if (pathToThis == null) {
+            List<TagNode> ancestors = getParentTree();
+            TagNode[] path = ancestors.toArray(new TagNode[ancestors.size() + 1]);
+            path[ancestors.size()] = this;
+            pathToThis = Collections.unmodifiableList(Arrays.asList(path));
+            if (getParent() == null) {
+                pathFingerprint = 0;
+            } else {
+                pathFingerprint = mix(getParent().getPathFingerprint()
+                        * 0x9E3779B97F4A7C15L + getFingerprint());
+            }
+        }
+        return pathToThis;
+    }
+
+    /**
+     * Two nodes from different trees have the same path fingerprint when
+     * their ancestors, except for the roots, and they themselves are
+     * pairwise similar tags, see {@link #getFingerprint()}. The roots are
+     * left out as {@link Node#getLastCommonParent(Node)} does not compare
+     * them.
+     * @return the fingerprint of the tags from below the root down to this
+     * node
+     */
+    long getPathFingerprint() {
+        getPathToThis();
+        return pathFingerprint;
+    }
+
+    /**
+     * Similar tags, which have the same name ignoring case and equivalent
+     * attributes, have the same fingerprint. The converse only holds
+     * with high probability, so equal fingerprints must be verified with
+     * {@link #isSameTag(TagNode)} where it matters. It is computed once,
+     * when the tag is created.
+     * @return a 64 bit hash of the name and the normalized attributes
+     */
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    /** FNV-1a */
+    private static long hash(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * FNV-1a of the characters folded the way
+     * {@link String#equalsIgnoreCase(String)} compares them.
+     */
+    private static long hashIgnoreCase(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** the finalizer of MurmurHash3 */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93e1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
     /**
      * If the provided parameter is in the same tree with
      * <code>this</code> object then this method fetches 
@@ -80,12 +233,49 @@ public class TagNode extends Node implements Iterable<Node> {
      * If the parameter is from a different tree, then this method
      * attempts to return the index of first semantically equivalent 
      * node to the parameter.
+     * The index of a child of this node is cached by it, so looking
+     * it up takes constant time once the children are numbered. This
+     * is the index of the first equal child, since a tag equals no other
+     * tag of its tree and text nodes do not override <code>equals</code>:
+     * a repeated word is a distinct child.
      * @param child - the template of a tag we need an index for.
      * @return the index of first semantically equivalent child 
      * or -1 if couldn't find one
      */
     public int getIndexOf(Node child) {
-        return children.indexOf(child);
+        // a child of this tree only equals itself among the children
+        if (child.getParent() != this || child.getRoot() != getRoot()) {
+            return children.indexOf(child);
+        }
+        return indexOfChild(child);
+    }
+
+    /**
+     * @return the index of the given node itself among the children, or -1
+     */
+    private int indexOfChild(Node child) {
+        int index = child.indexInParent;
+        if (index >= 0 && index < numberedChildren
+                && children.get(index) == child) {
+            return index;
+        }
+        while (numberedChildren < children.size()) {
+            Node next = children.get(numberedChildren);
+            next.indexInParent = numberedChildren++;
+            if (next == child) {
+                return next.indexInParent;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops the cached indexes from the given one on.
+     */
+    private void childrenChanged(int index) {
+        if (index < numberedChildren) {
+            numberedChildren = index;
+        }
     }
     
     /**
@@ -102,6 +292,7 @@ public class TagNode extends Node implements Iterable<Node> {
                     "The new child must have this node as a parent.");
 		}
         children.add(index, node);
+        childrenChanged(index);
     }
 
     public Node getChild(int i) {
@@ -204,12 +395,10 @@ public class TagNode extends Node implements Iterable<Node> {
         if (otherAttributes == null) {
 			return false;
 		}
-        if (attributesEqualityTests.get(otherAttributes) != null) {
-			return attributesEqualityTests.get(otherAttributes);
-		}
-        boolean result = getAttributesMap().hasSameAttributes(otherAttributes);
-        attributesEqualityTests.put(otherAttributes, result);
-        return result;
+        if (attributes.getLength() == 0) {
+            return otherAttributes.getLength() == 0;
+        }
+        return getAttributesMap().hasSameAttributes(otherAttributes);
     }
 
     private AttributesMap getAttributesMap()
@@ -228,6 +417,10 @@ public class TagNode extends Node implements Iterable<Node> {
     	boolean result = false;
     	if (another instanceof TagNode) {
     		TagNode otherNode = (TagNode) another;
+    		if (fingerprint != otherNode.fingerprint && fingerprintExact
+    		        && otherNode.fingerprintExact) {
+    		    return false;
+    		}
     		if (this.getQName().equalsIgnoreCase(otherNode.getQName())) {
     			result = hasSameAttributes(otherNode.getAttributes());
     		}
@@ -244,11 +437,7 @@ public class TagNode extends Node implements Iterable<Node> {
      */
     @Override
     public int hashCode(){
-    	final int simple = 29;
-    	int result = this.getQName().hashCode();
-        AttributesMap attrs = getAttributesMap();
-        result = result*simple + attrs.hashCode();
-    	return result;
+    	return (int) (fingerprint ^ (fingerprint >>> 32));
     }
     
     /**
@@ -360,43 +549,30 @@ public class TagNode extends Node implements Iterable<Node> {
             part1.setParent(getParent());
             part2.setParent(getParent());
 
-            int i = 0;
-            while (i < children.size() && children.get(i) != split) {
-                children.get(i).setParent(part1);
-                part1.addChild(children.get(i));
-                i++;
+            int splitIndex = indexOfChild(split);
+            if (splitIndex < 0) {
+                splitIndex = children.size();
+            } else if (includeLeft) {
+                splitIndex++;
             }
-            if (i < children.size()) {//means we've found "split" node
-                if (includeLeft) {
-                    children.get(i).setParent(part1);
-                    part1.addChild(children.get(i));
-                } else {
-                    children.get(i).setParent(part2);
-                    part2.addChild(children.get(i));
-                }
-                i++;
-            }
-            while (i < children.size()) {
-                children.get(i).setParent(part2);
-                part2.addChild(children.get(i));
-                i++;
-            }
-            if (part1.getNbChildren() > 0) {
-				getParent().addChild(getParent().getIndexOf(this), part1);
-			}
+            part1.moveChildren(children.subList(0, splitIndex));
+            part2.moveChildren(children.subList(splitIndex, children.size()));
 
+            List<TagNode> parts = new ArrayList<TagNode>(2);
+            if (part1.getNbChildren() > 0) {
+                parts.add(part1);
+            }
             if (part2.getNbChildren() > 0) {
-				getParent().addChild(getParent().getIndexOf(this), part2);
-			}
-
-            if (part1.getNbChildren() > 0 && part2.getNbChildren() > 0) {
-                splitOccured = true;
+                parts.add(part2);
             }
-            
             //since split isn't meant for no-children tags,
             //we won't have a case where we removed this and did not
             //substitute it with anything
-            getParent().removeChild(this);
+            getParent().replaceChild(this, parts);
+
+            if (part1.getNbChildren() > 0 && part2.getNbChildren() > 0) {
+                splitOccured = true;
+            }
 
             if (includeLeft) {
 				getParent().splitUntill(parent, part1, includeLeft);
@@ -408,8 +584,26 @@ public class TagNode extends Node implements Iterable<Node> {
 
     }
 
-    private void removeChild(Node node) {
-        children.remove(node);
+    /**
+     * Appends the given nodes, all children of another tag, as children of
+     * this node.
+     */
+    private void moveChildren(List<Node> nodes) {
+        for (Node node : nodes) {
+            node.setParent(this);
+        }
+        children.addAll(nodes);
+    }
+
+    /**
+     * Replaces a child by the given nodes, already having this node as their
+     * parent, in one move of the following children.
+     */
+    private void replaceChild(Node child, List<? extends Node> replacements) {
+        int index = indexOfChild(child);
+        children.remove(index);
+        children.addAll(index, replacements);
+        childrenChanged(index);
     }
 
     //block tags
@@ -489,12 +683,11 @@ public class TagNode extends Node implements Iterable<Node> {
 
     public void expandWhiteSpace() {
 
-        int shift = 0;
         boolean spaceAdded = false;
 
-        int nbOriginalChildren = getNbChildren();
-        for (int i = 0; i < nbOriginalChildren; i++) {
-            Node child = getChild(i + shift);
+        // the children with the white space nodes in between, set at once
+        List<Node> expanded = new ArrayList<Node>(children.size());
+        for (Node child : children) {
             try {
                 TagNode tagChild = (TagNode) child;
 
@@ -508,19 +701,24 @@ public class TagNode extends Node implements Iterable<Node> {
                 WhiteSpaceNode ws = new WhiteSpaceNode(null, " ", child
                         .getLeftMostChild());
                 ws.setParent(this);
-                addChild(i + (shift++), ws);
+                expanded.add(ws);
             }
+            expanded.add(child);
             if (child.isWhiteAfter()) {
                 WhiteSpaceNode ws = new WhiteSpaceNode(null, " ", child
                         .getRightMostChild());
                 ws.setParent(this);
-                addChild(i + 1 + (shift++), ws);
+                expanded.add(ws);
                 spaceAdded = true;
             } else {
                 spaceAdded = false;
             }
 
         }
+        if (expanded.size() > children.size()) {
+            children = expanded;
+            numberedChildren = 0;
+        }
     }
 
     @Override
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.outerj.daisy.diff.html.dom;
+
+import java.util.Arrays;
+
+/**
+ * The characters of all text nodes of one document, one after the other.
+ * <p>
+ * A {@link TextNode} only keeps the offset and length of its text in the
+ * buffer, instead of a <code>String</code> of its own. Characters are only
+ * ever appended, so the offsets stay valid while the buffer grows.
+ */
+public final class TextBuffer {
+
+    /**
+     * Every ASCII character at the offset of its code, shared by all
+     * documents: delimiters and other single character texts are slices of
+     * it instead of copies of their own. It cannot be appended to.
+     */
+    public static final TextBuffer ASCII = createAscii();
+
+    private char[] chars;
+
+    private int size = 0;
+
+    private final boolean shared;
+
+    public TextBuffer() {
+        chars = new char[1024];
+        shared = false;
+    }
+
+    /**
+     * Creates a buffer holding the given text.
+     */
+    public TextBuffer(String text) {
+        chars = text.toCharArray();
+        size = chars.length;
+        shared = false;
+    }
+
+    private TextBuffer(char[] chars) {
+        this.chars = chars;
+        size = chars.length;
+        shared = true;
+    }
+
+    private static TextBuffer createAscii() {
+        char[] chars = new char[128];
+        for (int c = 0; c < chars.length; c++)
+            chars[c] = (char) c;
+        return new TextBuffer(chars);
+    }
+
+    /**
+     * Returns whether the given character is in {@link #ASCII}, at the
+     * offset of its code.
+     */
+    public static boolean isAscii(char c) {
+        return c < 128;
+    }
+
+    /**
+     * Returns the number of characters in the buffer.
+     */
+    public int length() {
+        return size;
+    }
+
+    public char charAt(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        return chars[index];
+    }
+
+    public void append(char c) {
+        if (shared)
+            throw new UnsupportedOperationException(
+                    "The shared buffer cannot be appended to");
+        if (size == chars.length)
+            chars = Arrays.copyOf(chars, size * 2 + 1);
+        chars[size++] = c;
+    }
+
+    /**
+     * Releases the capacity that was reserved for more characters, once the
+     * document is complete.
+     */
+    public void trimToSize() {
+        if (size < chars.length)
+            chars = Arrays.copyOf(chars, size);
+    }
+
+    /**
+     * Returns the array backing the buffer. Only the first
+     * {@link #length()} characters are used, and the array is replaced when
+     * the buffer grows.
+     */
+    char[] getChars() {
+        return chars;
+    }
+}
@@ -22,18 +22,49 @@ import org.outerj.daisy.diff.html.modification.Modification;
 import org.outerj.daisy.diff.html.modification.ModificationType;
 
 /**
- * Represents a piece of text in the HTML file.
+ * Represents a piece of text in the HTML file. The text is a range of a
+ * {@link TextBuffer}, usually the one of the whole document.
  */
 public class TextNode extends Node implements Cloneable {
 
-    private String s;
+    private final TextBuffer buffer;
+
+    private final int offset;
+
+    private final int length;
 
     private Modification modification;
 
     public TextNode(TagNode parent, String s) {
+        this(parent, bufferOf(s), offsetOf(s), s.length());
+    }
+
+    /**
+     * Creates a text node for the given range of the buffer, without copying
+     * the characters.
+     */
+    public TextNode(TagNode parent, TextBuffer buffer, int offset, int length) {
         super(parent);
-        this.modification = new Modification(ModificationType.NONE, ModificationType.NONE);
-        this.s = s;
+        this.modification = Modification.NONE;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /*
+     * Single ASCII characters such as the white space of WhiteSpaceNodes are
+     * taken from the shared buffer, other strings get a buffer of their own.
+     */
+    private static TextBuffer bufferOf(String s) {
+        if (s.length() == 1 && TextBuffer.isAscii(s.charAt(0)))
+            return TextBuffer.ASCII;
+        return new TextBuffer(s);
+    }
+
+    private static int offsetOf(String s) {
+        if (s.length() == 1 && TextBuffer.isAscii(s.charAt(0)))
+            return s.charAt(0);
+        return 0;
     }
 
     @Override
@@ -62,6 +93,10 @@ public class TextNode extends Node implements Cloneable {
         return nodes;
     }
 
+    /**
+     * Returns the modification of this node, the shared
+     * {@link Modification#NONE} as long as it is unchanged.
+     */
     public Modification getModification() {
         return this.modification;
     }
@@ -72,7 +107,25 @@ public class TextNode extends Node implements Cloneable {
     }
 
     public String getText() {
-        return s;
+        return new String(buffer.getChars(), offset, length);
+    }
+
+    /**
+     * Returns the text as a view of the buffer, without copying it.
+     */
+    public TextSlice getTextSlice() {
+        return new TextSlice(buffer, offset, length);
+    }
+
+    /**
+     * Returns the normalized text under which this node is interned for
+     * comparison. Two text nodes have equal keys exactly when
+     * {@link #isSameText(Object)} considers them the same; the latter remains
+     * the reference behavior.
+     * @return the comparison key of this node
+     */
+    public Object getSymbolKey() {
+        return getTextSlice().replace('\n', ' ');
     }
 
     public boolean isSameText(Object other) {
@@ -85,8 +138,17 @@ public class TextNode extends Node implements Cloneable {
         } catch (ClassCastException e) {
             return false;
         }
-        return getText().replace('\n', ' ').equals(
-                otherTextNode.getText().replace('\n', ' '));
+        if (length != otherTextNode.length)
+            return false;
+        char[] chars = buffer.getChars();
+        char[] otherChars = otherTextNode.buffer.getChars();
+        for (int i = 0; i < length; i++) {
+            char c = chars[offset + i];
+            char otherC = otherChars[otherTextNode.offset + i];
+            if (c != otherC && (c == '\n' ? ' ' : c) != (otherC == '\n' ? ' ' : otherC))
+                return false;
+        }
+        return true;
     }
 
     public void setModification(Modification m) {
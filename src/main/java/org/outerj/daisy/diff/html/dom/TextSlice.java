@@ -0,0 +1,115 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.outerj.daisy.diff.html.dom;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * A view of a range of a {@link TextBuffer}, without copying it.
+ * <p>
+ * Two slices are equal when they hold the same characters, wherever they
+ * are stored, and the hash code is the one of the equal <code>String</code>.
+ * Slices are not equal to other kinds of <code>CharSequence</code>.
+ */
+public final class TextSlice implements CharSequence {
+
+    private final TextBuffer buffer;
+
+    private final int offset;
+
+    private final int length;
+
+    public TextSlice(TextBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.length())
+            throw new IndexOutOfBoundsException(offset + "+" + length);
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        return buffer.getChars()[offset + index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException(start + ".." + end);
+        return new TextSlice(buffer, offset + start, end - start);
+    }
+
+    /**
+     * Returns this slice with all <code>oldChar</code>s replaced by
+     * <code>newChar</code>, which is this slice itself if it has none.
+     */
+    public TextSlice replace(char oldChar, char newChar) {
+        char[] chars = buffer.getChars();
+        int i = offset;
+        int end = offset + length;
+        while (i < end && chars[i] != oldChar)
+            i++;
+        if (i == end)
+            return this;
+        TextBuffer replaced = new TextBuffer(toString().replace(oldChar,
+                newChar));
+        return new TextSlice(replaced, 0, length);
+    }
+
+    /**
+     * Passes the characters to the handler, straight from the buffer.
+     */
+    public void writeTo(ContentHandler handler) throws SAXException {
+        handler.characters(buffer.getChars(), offset, length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this)
+            return true;
+        if (!(other instanceof TextSlice))
+            return false;
+        TextSlice slice = (TextSlice) other;
+        if (slice.length != length)
+            return false;
+        char[] chars = buffer.getChars();
+        char[] otherChars = slice.buffer.getChars();
+        for (int i = 0; i < length; i++) {
+            if (chars[offset + i] != otherChars[slice.offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        char[] chars = buffer.getChars();
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++)
+            hash = 31 * hash + chars[i];
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer.getChars(), offset, length);
+    }
+}
@@ -28,10 +28,12 @@ public class WhiteSpaceNode extends TextNode {
 
         try {
             TextNode textNode = (TextNode) like;
-            Modification newModification = textNode.getModification().clone();
+            if (textNode.getModification() != Modification.NONE) {
+                Modification newModification = textNode.getModification().clone();
 
-            newModification.setFirstOfID(false);
-            setModification(newModification);
+                newModification.setFirstOfID(false);
+                setModification(newModification);
+            }
 
         } catch (ClassCastException e) {
         } catch (NullPointerException e) {
@@ -135,9 +135,9 @@ public class AttributesMap extends HashMap<String, String> {
 		for (String attr: keySet()){
 			result += attr.hashCode()*simple;
 			if (attr.equals(STYLE_ATTR)){
-				result += normalizeStyleString(get(attr)).hashCode();
+				result += CanonicalValues.STYLES.get(get(attr)).hashCode();
 			} else if (attr.equals(CLASS_ATTR)){
-				result += normalizeClassString(get(attr)).hashCode();
+				result += CanonicalValues.CLASSES.get(get(attr)).hashCode();
 			} else {
 				result += get(attr).hashCode();
 			}
@@ -156,66 +156,7 @@ public class AttributesMap extends HashMap<String, String> {
 	 * @return
 	 */
 	public static boolean equivalentStyles(String style1, String style2){
-		if (style1 == null){
-			if (style2 == null){
-				return true; //both are nulls
-			} else {
-				return false; //one(#2) isn't null, while other is
-			}
-		} else if (style2 == null){
-			return false; //one(#1) isn't null, while other is
-		}
-		//no nulls at this point
-		//get rid of the new line symbols and tabulation
-		//substituting them with spaces to not "jam" separate tokens together 
-		style1 = style1.replaceAll(NL_TAB_REGEXP, SPACE);
-		style2 = style2.replaceAll(NL_TAB_REGEXP, SPACE);
-		//get rid of consecutive spaces
-		style1 = style1.replaceAll(SPACE + "++", SPACE);
-		style2 = style2.replaceAll(SPACE + "++", SPACE);
-		//get rid of leading/trailing spaces
-		style1 = style1.trim();
-		style2 = style2.trim();
-		//check if they were actually the same
-		if (style1.equals(style2)){
-			//literally equal except maybe for leading/trailing spaces
-			//and text positioning with tabs/new lines
-			return true;
-		}
-		//style rules in the style attribute value are
-		//separated by semicolon with any amount of space on either side
-		final char SEMICOLON = ';';
-		//notice, that this delimiter will "eat up" all the empty styles
-		//like in this case: "prop1:val1  ;  ;  ;;;; prop2 : val2"
-		//you will only get 2 tokens and this: "  ;  ;  ;;;; " will be 
-		//considered as a single delimiter.
-		//atomic group and possessive quantifier used to speed up regexp
-		final String DELIM = SPACE + "*+(?>" + SEMICOLON + SPACE + "*+)++";
-		//split those to CSS property name : value pairs
-		String[] styleRules1 = style1.split(DELIM);
-		String[] styleRules2 = style2.split(DELIM);
-		//should be the same amount of properties, or it's not equivalent
-		if (styleRules1.length != styleRules2.length){
-			return false;
-		}
-		//sort by CSS property name
-		Arrays.sort(styleRules1);
-		Arrays.sort(styleRules2);
-		//remove the spaces between property name,
-		//the colon and the value 
-		final String COLON_W_SPACES = 
-			SPACE + "*+:" + SPACE + "*+";
-		final String COLON = ":";
-		for (int i = 0; i < styleRules1.length; i++){
-			styleRules1[i] = 
-				styleRules1[i].replaceFirst(COLON_W_SPACES, COLON);
-			styleRules2[i] = 
-				styleRules2[i].replaceFirst(COLON_W_SPACES, COLON);
-			if (!styleRules1[i].equals(styleRules2[i])){
-				return false;
-			}
-		}
-		return true;
+		return CanonicalValues.STYLES.equivalent(style1, style2);
 	}
 	
 	/**
@@ -233,52 +174,15 @@ public class AttributesMap extends HashMap<String, String> {
 	 * @return true if the values are equivalent (including null values)
 	 */
 	public static boolean sameClassSet(String classSet1, String classSet2){
-		if (classSet1 == null){
-			if (classSet2 == null){
-				return true; //both are nulls
-			} else {
-				return false; //one(#2) isn't null, while other is
-			}
-		} else if (classSet2 == null){
-			return false; //one(#1) isn't null, while other is
-		}
-		//no nulls at this point
-		//get rid of new line and tabulation symbols
-		classSet1 = classSet1.replaceAll(NL_TAB_REGEXP, SPACE);
-		classSet2 = classSet2.replaceAll(NL_TAB_REGEXP, SPACE);
-		//trim leading/trailing spaces
-		classSet1 = classSet1.trim();
-		classSet2 = classSet2.trim();
-		if (classSet1.equals(classSet2)){
-			//literally equal except maybe for leading/trailing spaces
-			//or for white space symbols (tab and new line)
-			//notice that style names are case-sensitive.
-			return true; 
-		}
-		//multiple class names in the class attributes
-		//are separated by spaces - split into array of single classes
-		final String DELIM = SPACE + "++";//"++" is possessive quantifier
-		//splitting by any amount of spaces in between
-		String[] set1 = classSet1.split(DELIM);
-		String[] set2 = classSet2.split(DELIM);
-		//should be the same amount of classes, or it's not equivalent
-		if (set1.length != set2.length){
-			return false;
-		}
-		//checking classes
-		Arrays.sort(set1);
-		Arrays.sort(set2);
-		return Arrays.equals(set1, set2);
+		return CanonicalValues.CLASSES.equivalent(classSet1, classSet2);
 	}
 
 	/**
 	 * The <code>hashCode()</code> method should correspond to
 	 * <code>equals</code> method, so we need a way to get the
 	 * styles attribute value in the same representation we use
-	 * when we're comparing. We could use this method in comparison
-	 * method, however the way comparison method is written now
-	 * is much faster, because it can fail or succeed long before 
-	 * normalization is finished.
+	 * when we're comparing. Comparisons use the forms cached by
+	 * {@link CanonicalValues}, which normalizes with this method.
 	 * @param styleVal - value of "style" attribute of an HTML tag.
 	 * @return normalized representation of the provided value
 	 */
@@ -309,6 +213,10 @@ public class AttributesMap extends HashMap<String, String> {
 		final String DELIM = SPACE + "*+(?>" + SEMICOLON + SPACE + "*+)++";
 		//split those to CSS property name : value pairs
 		String[] styleRules = styleVal.split(DELIM);
+		if (styleRules.length == 0){
+			//nothing but semicolons, no rule can be written like that
+			return String.valueOf(SEMICOLON);
+		}
 		//sort by CSS property name
 		Arrays.sort(styleRules);
 		//remove the spaces between property name,
@@ -330,10 +238,8 @@ public class AttributesMap extends HashMap<String, String> {
 	 * The <code>hashCode()</code> method should correspond to
 	 * <code>equals</code> method, so we need a way to get the
 	 * class attribute value in the same representation we use
-	 * when we're comparing. We could use this method in comparison
-	 * method, however the way comparison method is written now
-	 * is much faster, because it can fail or succeed long before 
-	 * normalization is finished.
+	 * when we're comparing. Comparisons use the forms cached by
+	 * {@link CanonicalValues}, which normalizes with this method.
 	 * @param classVal - value of "class" attribute of an HTML tag.
 	 * @return normalized representation of the provided value
 	 */
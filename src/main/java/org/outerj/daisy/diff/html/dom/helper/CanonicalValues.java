@@ -0,0 +1,167 @@
+/*
+ * Copyright 2007 Guy Van den Broeck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.outerj.daisy.diff.html.dom.helper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of the normalized forms of "style" or "class"
+ * attribute values, shared by all threads. Generated documents repeat the
+ * same few values on many tags, which would otherwise be split and sorted
+ * again for every comparison.
+ * <p>
+ * Equivalent values get the same canonical <code>String</code> instance, so
+ * comparing them mostly takes a reference comparison. The cache holds about
+ * {@link #getMaxRetainedChars()} characters of values; when it is full it
+ * is cleared and starts over, after which canonical forms obtained before
+ * are equal but possibly not identical to new ones.
+ */
+public abstract class CanonicalValues {
+
+    /** the values of "style" attributes, see {@link AttributesMap#normalizeStyleString(String)} */
+    public static final CanonicalValues STYLES = new CanonicalValues() {
+        @Override
+        protected String normalize(String value) {
+            return AttributesMap.normalizeStyleString(value);
+        }
+    };
+
+    /** the values of "class" attributes, see {@link AttributesMap#normalizeClassString(String)} */
+    public static final CanonicalValues CLASSES = new CanonicalValues() {
+        @Override
+        protected String normalize(String value) {
+            return AttributesMap.normalizeClassString(value);
+        }
+    };
+
+    private static volatile long maxRetainedChars = 1 << 20;
+
+    /** raw values and canonical forms, mapped to the canonical forms */
+    private final ConcurrentHashMap<String, String> canonicals = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong retainedChars = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the number of characters of values each cache keeps at most.
+     */
+    public static long getMaxRetainedChars() {
+        return maxRetainedChars;
+    }
+
+    /**
+     * Sets the number of characters of values each cache keeps at most, 0
+     * to keep none.
+     */
+    public static void setMaxRetainedChars(long maxRetainedChars) {
+        CanonicalValues.maxRetainedChars = maxRetainedChars;
+    }
+
+    /**
+     * Returns the normal form of the given value. It must be the same for
+     * normal forms, and equal for equivalent values.
+     */
+    protected abstract String normalize(String value);
+
+    /**
+     * @return the canonical form of the value, which is the same instance
+     * for equivalent values as long as the cache is not cleared, or
+     * <code>null</code> for <code>null</code>
+     */
+    public String get(String value) {
+        if (value == null) {
+            return null;
+        }
+        String canonical = canonicals.get(value);
+        if (canonical != null) {
+            hits.incrementAndGet();
+            return canonical;
+        }
+        misses.incrementAndGet();
+        canonical = normalize(value);
+        long size = value.length() + canonical.length();
+        if (retainedChars.addAndGet(size) > maxRetainedChars) {
+            clear();
+            if (size > maxRetainedChars) {
+                return canonical;
+            }
+            retainedChars.addAndGet(size);
+        }
+        String shared = canonicals.putIfAbsent(canonical, canonical);
+        if (shared != null) {
+            canonical = shared;
+        }
+        canonicals.put(value, canonical);
+        return canonical;
+    }
+
+    /**
+     * @return whether the values have the same canonical form, both
+     * <code>null</code> included
+     */
+    public boolean equivalent(String value1, String value2) {
+        String canonical1 = get(value1);
+        String canonical2 = get(value2);
+        if (canonical1 == canonical2) {
+            return true;
+        }
+        return canonical1 != null && canonical1.equals(canonical2);
+    }
+
+    /**
+     * Returns the number of values found in the cache since it was created.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of values that had to be normalized since the cache
+     * was created.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of values found in the cache, 0 if none was asked for
+     */
+    public double getHitRate() {
+        long found = hits.get();
+        long total = found + misses.get();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    /**
+     * Returns the number of characters of the values in the cache, roughly
+     * while other threads add to it.
+     */
+    public long getRetainedChars() {
+        return retainedChars.get();
+    }
+
+    /**
+     * Drops all values from the cache, keeping the statistics.
+     */
+    public void clear() {
+        canonicals.clear();
+        retainedChars.set(0);
+    }
+}
@@ -15,9 +15,10 @@
  */
 package org.outerj.daisy.diff.tag;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Iterator;
 
+import org.eclipse.compare.internal.LCSSettings;
+import org.eclipse.compare.rangedifferencer.PackedDifferences;
 import org.eclipse.compare.rangedifferencer.RangeDifference;
 import org.eclipse.compare.rangedifferencer.RangeDifferencer;
 import org.outerj.daisy.diff.output.TextDiffOutput;
@@ -43,34 +44,51 @@ public class TagDiffer implements TextDiffer{
     public void diff(IAtomSplitter leftComparator, IAtomSplitter rightComparator)
             throws Exception {
 
-        RangeDifference[] differences = RangeDifferencer.findDifferences(
-                leftComparator, rightComparator);
-
-        List<RangeDifference> pdifferences = preProcess(differences,
-                leftComparator);
+        Iterator<RangeDifference> differences = RangeDifferencer
+                .iterateDifferences(new LCSSettings(), leftComparator,
+                        rightComparator);
 
         int rightAtom = 0;
         int leftAtom = 0;
 
-        for (int i = 0; i < pdifferences.size(); i++) {
+        RangeDifference d = differences.hasNext() ? differences.next() : null;
+        while (d != null) {
+
+            // join the following differences as in preProcess, as they come
+            int kind = d.kind();
+            int leftStart = d.leftStart();
+            int leftEnd = d.leftEnd();
+            int rightStart = d.rightStart();
+            int rightEnd = d.rightEnd();
+            d = null;
+            while (differences.hasNext()) {
+                RangeDifference next = differences.next();
+                if (next.kind() == kind
+                        && joins(leftComparator, leftEnd - leftStart, rightEnd
+                                - rightStart, leftEnd, next.leftStart())) {
+                    leftEnd = next.leftEnd();
+                    rightEnd = next.rightEnd();
+                } else {
+                    d = next;
+                    break;
+                }
+            }
 
-            parseNoChange(leftAtom, pdifferences.get(i).leftStart(), rightAtom,
-                    pdifferences.get(i).rightStart(), leftComparator,
-                    rightComparator);
+            parseNoChange(leftAtom, leftStart, rightAtom, rightStart,
+                    leftComparator, rightComparator);
 
-            String leftString = leftComparator.substring(pdifferences.get(i)
-                    .leftStart(), pdifferences.get(i).leftEnd());
-            String rightString = rightComparator.substring(pdifferences.get(i)
-                    .rightStart(), pdifferences.get(i).rightEnd());
+            String leftString = leftComparator.substring(leftStart, leftEnd);
+            String rightString = rightComparator.substring(rightStart,
+                    rightEnd);
 
-            if (pdifferences.get(i).leftLength() > 0)
+            if (leftEnd > leftStart)
                 output.addRemovedPart(leftString);
 
-            if (pdifferences.get(i).rightLength() > 0)
+            if (rightEnd > rightStart)
                 output.addAddedPart(rightString);
 
-            rightAtom = pdifferences.get(i).rightEnd();
-            leftAtom = pdifferences.get(i).leftEnd();
+            rightAtom = rightEnd;
+            leftAtom = leftEnd;
 
         }
         if (rightAtom < rightComparator.getRangeCount())
@@ -116,27 +134,27 @@ public class TagDiffer implements TextDiffer{
 
                 RangeDifference[] differences2 = RangeDifferencer
                         .findDifferences(leftComparator2, rightComparator2);
-                List<RangeDifference> pdifferences2 = preProcess(differences2,
-                        2);
+                PackedDifferences pdifferences2 = new PackedDifferences(
+                        differences2);
+                preProcess(pdifferences2, 2);
 
                 int rightAtom2 = 0;
-                for (int j = 0; j < pdifferences2.size(); j++) {
-                    if (rightAtom2 < pdifferences2.get(j).rightStart()) {
+                PackedDifferences.Cursor d2 = pdifferences2.cursor();
+                while (d2.next()) {
+                    if (rightAtom2 < d2.rightStart()) {
                         output.addClearPart(rightComparator2.substring(
-                                rightAtom2, pdifferences2.get(j).rightStart()));
+                                rightAtom2, d2.rightStart()));
                     }
-                    if (pdifferences2.get(j).leftLength() > 0) {
-                        output.addRemovedPart(leftComparator2.substring(
-                                pdifferences2.get(j).leftStart(), pdifferences2
-                                        .get(j).leftEnd()));
+                    if (d2.leftLength() > 0) {
+                        output.addRemovedPart(leftComparator2.substring(d2
+                                .leftStart(), d2.leftEnd()));
                     }
-                    if (pdifferences2.get(j).rightLength() > 0) {
-                        output.addAddedPart(rightComparator2.substring(
-                                pdifferences2.get(j).rightStart(),
-                                pdifferences2.get(j).rightEnd()));
+                    if (d2.rightLength() > 0) {
+                        output.addAddedPart(rightComparator2.substring(d2
+                                .rightStart(), d2.rightEnd()));
                     }
 
-                    rightAtom2 = pdifferences2.get(j).rightEnd();
+                    rightAtom2 = d2.rightEnd();
 
                 }
                 if (rightAtom2 < rightComparator2.getRangeCount())
@@ -149,89 +167,64 @@ public class TagDiffer implements TextDiffer{
 
     }
 
-    private List<RangeDifference> preProcess(RangeDifference[] differences,
-            IAtomSplitter leftComparator) {
-
-        List<RangeDifference> newRanges = new LinkedList<RangeDifference>();
-
-        for (int i = 0; i < differences.length; i++) {
-
-            int leftStart = differences[i].leftStart();
-            int leftEnd = differences[i].leftEnd();
-            int rightStart = differences[i].rightStart();
-            int rightEnd = differences[i].rightEnd();
-            int kind = differences[i].kind();
-            int temp = leftEnd;
-            boolean connecting = true;
-
-            while (connecting && i + 1 < differences.length
-                    && differences[i + 1].kind() == kind) {
-
-                int bridgelength = 0;
-
-                int nbtokens = Math.max((leftEnd - leftStart),
-                        (rightEnd - rightStart));
-                if (nbtokens > 5) {
-                    if (nbtokens > 10) {
-                        bridgelength = 3;
-                    } else
-                        bridgelength = 2;
-                }
+    /*
+     * Returns whether a hunk is joined with the next one of the same kind:
+     * when only delimiters and a few bridging atoms lie between them.
+     */
+    private boolean joins(IAtomSplitter leftComparator, int leftLength,
+            int rightLength, int leftEnd, int nextLeftStart) {
 
-				while (temp < differences[i + 1].leftStart()
-						&& (leftComparator.getAtom(temp) instanceof DelimiterAtom || (bridgelength-- > 0))) {
+        int bridgelength = 0;
 
-					temp++;
-				}
-                if (temp == differences[i + 1].leftStart()) {
-                    leftEnd = differences[i + 1].leftEnd();
-                    rightEnd = differences[i + 1].rightEnd();
-                    temp = leftEnd;
-                    i++;
-                } else {
-                    connecting = false;
-                    if (!(leftComparator.getAtom(temp) instanceof DelimiterAtom)) {
-                        if (leftComparator.getAtom(temp).getFullText().equals(
-                                " "))
-                            throw new IllegalStateException(
-                                    "space found aiaiai");
-                    }
-                }
-            }
-            newRanges.add(new RangeDifference(kind, rightStart, rightEnd
-                    - rightStart, leftStart, leftEnd - leftStart));
+        int nbtokens = Math.max(leftLength, rightLength);
+        if (nbtokens > 5) {
+            if (nbtokens > 10) {
+                bridgelength = 3;
+            } else
+                bridgelength = 2;
         }
 
-        return newRanges;
+        int temp = leftEnd;
+		while (temp < nextLeftStart
+				&& (leftComparator.getAtom(temp) instanceof DelimiterAtom || (bridgelength-- > 0))) {
+
+			temp++;
+		}
+        if (temp == nextLeftStart)
+            return true;
+        if (!(leftComparator.getAtom(temp) instanceof DelimiterAtom)) {
+            if (leftComparator.getAtom(temp).getFullText().equals(" "))
+                throw new IllegalStateException("space found aiaiai");
+        }
+        return false;
     }
 
-    private List<RangeDifference> preProcess(RangeDifference[] differences,
-            int span) {
-
-        List<RangeDifference> newRanges = new LinkedList<RangeDifference>();
-
-        for (int i = 0; i < differences.length; i++) {
-
-            int leftStart = differences[i].leftStart();
-            int leftEnd = differences[i].leftEnd();
-            int rightStart = differences[i].rightStart();
-            int rightEnd = differences[i].rightEnd();
-            int kind = differences[i].kind();
-
-            while (i + 1 < differences.length
-                    && differences[i + 1].kind() == kind
-                    && differences[i + 1].leftStart() <= leftEnd + span
-                    && differences[i + 1].rightStart() <= rightEnd + span) {
-                leftEnd = differences[i + 1].leftEnd();
-                rightEnd = differences[i + 1].rightEnd();
+    /*
+     * Joins hunks of the same kind that are at most span atoms apart on both
+     * sides, in place.
+     */
+    private void preProcess(PackedDifferences differences, int span) {
+
+        int count = 0;
+        for (int i = 0; i < differences.size(); i++) {
+
+            differences.move(i, count);
+            int kind = differences.kind(count);
+
+            while (i + 1 < differences.size()
+                    && differences.kind(i + 1) == kind
+                    && differences.leftStart(i + 1) <= differences
+                            .leftEnd(count)
+                            + span
+                    && differences.rightStart(i + 1) <= differences
+                            .rightEnd(count)
+                            + span) {
+                differences.extend(count, i + 1);
                 i++;
             }
-
-            newRanges.add(new RangeDifference(kind, rightStart, rightEnd
-                    - rightStart, leftStart, leftEnd - leftStart));
+            count++;
         }
-
-        return newRanges;
+        differences.truncate(count);
     }
 
 }
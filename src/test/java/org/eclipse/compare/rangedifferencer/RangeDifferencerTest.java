@@ -0,0 +1,617 @@
+package org.eclipse.compare.rangedifferencer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.eclipse.compare.internal.DiffBudget;
+import org.eclipse.compare.internal.DiffEngine;
+import org.eclipse.compare.internal.LCSSettings;
+import org.eclipse.compare.internal.ScratchBuffers;
+import org.junit.Test;
+
+/**
+ * Checks the different engines of {@link RangeDifferencer} against each other.
+ */
+public class RangeDifferencerTest
+{
+    /**
+     * Compares ints, optionally through a shared {@link SymbolTable}.
+     */
+    private static class IntComparator implements ISymbolComparator
+    {
+        private final int[] values;
+        private SymbolTable table = new SymbolTable();
+        private int[] symbols;
+
+        IntComparator(int... values)
+        {
+            this.values = values;
+            useSymbolTable(table);
+        }
+
+        public int getRangeCount()
+        {
+            return values.length;
+        }
+
+        public boolean rangesEqual(int thisIndex, IRangeComparator other, int otherIndex)
+        {
+            return values[thisIndex] == ((IntComparator) other).values[otherIndex];
+        }
+
+        public boolean skipRangeComparison(int length, int maxLength, IRangeComparator other)
+        {
+            return false;
+        }
+
+        public SymbolTable getSymbolTable()
+        {
+            return table;
+        }
+
+        public void useSymbolTable(SymbolTable newTable)
+        {
+            symbols = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                symbols[i] = newTable.intern(Integer.valueOf(values[i]));
+            }
+            table = newTable;
+        }
+
+        public int[] getSymbols()
+        {
+            return symbols;
+        }
+    }
+
+    private static int[] randomSequence(Random random, int length, int alphabet)
+    {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = random.nextInt(alphabet);
+        }
+        return result;
+    }
+
+    private static int[] mutate(Random random, int[] original, int edits, int alphabet)
+    {
+        int[] result = original.clone();
+        for (int i = 0; i < edits && result.length > 0; i++) {
+            int position = random.nextInt(result.length);
+            int[] next;
+            switch (random.nextInt(3)) {
+            case 0:
+                next = new int[result.length - 1];
+                System.arraycopy(result, 0, next, 0, position);
+                System.arraycopy(result, position + 1, next, position, next.length - position);
+                break;
+            case 1:
+                next = new int[result.length + 1];
+                System.arraycopy(result, 0, next, 0, position);
+                next[position] = random.nextInt(alphabet);
+                System.arraycopy(result, position, next, position + 1, result.length - position);
+                break;
+            default:
+                next = result;
+                next[position] = random.nextInt(alphabet);
+            }
+            result = next;
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that the differences describe a valid edit script from left to
+     * right and returns its number of edits.
+     */
+    private static int assertValidScript(RangeDifference[] differences, int[] left, int[] right)
+    {
+        int x = 0;
+        int y = 0;
+        int edits = 0;
+        for (RangeDifference d : differences) {
+            assertTrue("hunks must not be empty", d.rightLength() > 0 || d.leftLength() > 0);
+            assertEquals(d.rightStart() - x, d.leftStart() - y);
+            for (; x < d.rightStart(); x++, y++) {
+                assertEquals(right[x], left[y]);
+            }
+            x = d.rightEnd();
+            y = d.leftEnd();
+            edits += d.rightLength() + d.leftLength();
+        }
+        assertEquals(right.length - x, left.length - y);
+        for (; x < right.length; x++, y++) {
+            assertEquals(right[x], left[y]);
+        }
+        return edits;
+    }
+
+    private static RangeDifference[] diff(DiffEngine engine, int[] left, int[] right)
+    {
+        LCSSettings settings = new LCSSettings();
+        settings.setEngine(engine);
+        return RangeDifferencer.findDifferences(settings, new IntComparator(left),
+                new IntComparator(right));
+    }
+
+    private static void assertMinimal(DiffEngine engine)
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            int alphabet = 1 + random.nextInt(20);
+            int[] left = randomSequence(random, random.nextInt(60), alphabet);
+            int[] right = mutate(random, left, random.nextInt(20), alphabet);
+            int expected = assertValidScript(diff(DiffEngine.MYERS, left, right), left, right);
+            int actual = assertValidScript(diff(engine, left, right), left, right);
+            assertEquals(engine + " is not minimal", expected, actual);
+        }
+    }
+
+    @Test
+    public void testLinearMyersIsMinimal() throws Exception
+    {
+        assertMinimal(DiffEngine.LINEAR_MYERS);
+    }
+
+    @Test
+    public void testBandedIsMinimal() throws Exception
+    {
+        assertMinimal(DiffEngine.BANDED);
+    }
+
+    @Test
+    public void testHuntSzymanskiIsMinimal() throws Exception
+    {
+        assertMinimal(DiffEngine.HUNT_SZYMANSKI);
+    }
+
+    @Test
+    public void testSparseMatchesPickHuntSzymanski() throws Exception
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            // a rewrite over a large vocabulary shares few tokens
+            int[] left = randomSequence(random, 2000, 100000);
+            int[] right = mutate(random, left, 3000, 100000);
+            IntComparator leftComparator = new IntComparator(left);
+            IntComparator rightComparator = new IntComparator(right);
+            SymbolTable.align(leftComparator, rightComparator);
+            assertTrue(HuntSzymanskiDifferencer.isPreferable(leftComparator, rightComparator));
+            int expected = assertValidScript(diff(DiffEngine.LINEAR_MYERS, left, right), left, right);
+            int actual = assertValidScript(diff(DiffEngine.MYERS, left, right), left, right);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testHuntSzymanskiFallsBackOnDenseMatches() throws Exception
+    {
+        // two symbols only: tens of millions of matching pairs
+        Random random = new Random(42);
+        int[] left = randomSequence(random, 8000, 2);
+        int[] right = mutate(random, left, 50, 2);
+        int actual = assertValidScript(diff(DiffEngine.HUNT_SZYMANSKI, left, right), left, right);
+        int expected = assertValidScript(diff(DiffEngine.LINEAR_MYERS, left, right), left, right);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testAutoRecordsSelectedEngine() throws Exception
+    {
+        Random random = new Random(42);
+        int[] left = randomSequence(random, 2000, 100000);
+        int[] sparse = mutate(random, left, 3000, 100000);
+        int[] revision = mutate(random, left, 20, 100000);
+        LCSSettings settings = new LCSSettings();
+        settings.setEngine(DiffEngine.AUTO);
+        assertValidScript(RangeDifferencer.findDifferences(settings, new IntComparator(left),
+                new IntComparator(sparse)), left, sparse);
+        assertEquals(DiffEngine.HUNT_SZYMANSKI, settings.getSelectedEngine());
+        assertValidScript(RangeDifferencer.findDifferences(settings, new IntComparator(left),
+                new IntComparator(revision)), left, revision);
+        assertEquals(DiffEngine.MYERS, settings.getSelectedEngine());
+        assertNotNull(settings.getSelectionReason());
+
+        // an explicit engine overrides the selection
+        settings.setEngine(DiffEngine.BANDED);
+        settings.recordSelection(null, null);
+        RangeDifferencer.findDifferences(settings, new IntComparator(left),
+                new IntComparator(sparse));
+        assertNull(settings.getSelectedEngine());
+    }
+
+    @Test
+    public void testAutoIsMinimalOnShortSequences() throws Exception
+    {
+        assertMinimal(DiffEngine.AUTO);
+    }
+
+    @Test
+    public void testBlockMatchingIsValid() throws Exception
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            int[] left = randomSequence(random, 200 + random.nextInt(2000), 1000);
+            int[] right = mutate(random, left, random.nextInt(100), 1000);
+            // move the head of the document to the end
+            int cut = random.nextInt(right.length);
+            int[] moved = new int[right.length];
+            System.arraycopy(right, cut, moved, 0, right.length - cut);
+            System.arraycopy(right, 0, moved, right.length - cut, cut);
+            LCSSettings settings = new LCSSettings();
+            settings.setBlockMatchThreshold(0);
+            RangeDifference[] differences = RangeDifferencer.findDifferences(settings,
+                    new IntComparator(left), new IntComparator(moved));
+            assertValidScript(differences, left, moved);
+        }
+    }
+
+    @Test
+    public void testBitParallelMatchesOldDifferencer() throws Exception
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int alphabet = 1 + random.nextInt(8);
+            int[] left = randomSequence(random, random.nextInt(129), alphabet);
+            int[] right = mutate(random, left, random.nextInt(30), alphabet);
+            if (right.length > BitParallelDifferencer.MAX_LENGTH)
+                continue;
+            RangeDifference[] expected = OldDifferencer.findDifferences(null,
+                    new DiffBudget(new LCSSettings()), new IntComparator(left),
+                    new IntComparator(right));
+            RangeDifference[] actual = BitParallelDifferencer.findDifferences(
+                    new IntComparator(left), new IntComparator(right));
+            assertEquals(expected.length, actual.length);
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[j], actual[j]);
+            }
+            // with masks built from a shared symbol table
+            IntComparator leftComparator = new IntComparator(left);
+            IntComparator rightComparator = new IntComparator(right);
+            SymbolTable.align(leftComparator, rightComparator);
+            actual = BitParallelDifferencer.findDifferences(leftComparator, rightComparator);
+            assertEquals(expected.length, actual.length);
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[j], actual[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testHistogramIsValid() throws Exception
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            int alphabet = 1 + random.nextInt(100);
+            int[] left = randomSequence(random, random.nextInt(200), alphabet);
+            int[] right = mutate(random, left, random.nextInt(40), alphabet);
+            assertValidScript(diff(DiffEngine.HISTOGRAM, left, right), left, right);
+        }
+    }
+
+    @Test
+    public void testHistogramAnchorsOnRareTokens() throws Exception
+    {
+        // the unique 9 ties both sides together, the rest is a plain insert
+        RangeDifference[] differences = diff(DiffEngine.HISTOGRAM,
+                new int[] {1, 9, 1, 2}, new int[] {1, 2, 1, 9, 1, 2});
+        assertEquals(1, differences.length);
+        assertEquals(1, differences[0].leftStart());
+        assertEquals(0, differences[0].leftLength());
+        assertEquals(1, differences[0].rightStart());
+        assertEquals(2, differences[0].rightLength());
+    }
+
+    @Test
+    public void testLinearMyersSimpleChange() throws Exception
+    {
+        RangeDifference[] differences = diff(DiffEngine.LINEAR_MYERS,
+                new int[] {1, 2, 3, 4}, new int[] {1, 5, 3, 4});
+        assertEquals(1, differences.length);
+        assertEquals(1, differences[0].leftStart());
+        assertEquals(1, differences[0].leftLength());
+        assertEquals(1, differences[0].rightStart());
+        assertEquals(1, differences[0].rightLength());
+    }
+
+    @Test
+    public void testParallelIsValid() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LCSSettings settings = new LCSSettings();
+            settings.setForkJoinPool(pool);
+            settings.setParallelThreshold(16);
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                // a large alphabet leaves many unique anchors to cut at
+                int[] left = randomSequence(random, 500 + random.nextInt(500), 2000);
+                int[] right = mutate(random, left, random.nextInt(50), 2000);
+                RangeDifference[] differences = RangeDifferencer.findDifferences(settings,
+                        new IntComparator(left), new IntComparator(right));
+                RangeDifference[] sequential = RangeDifferencer.findDifferences(new LCSSettings(),
+                        new IntComparator(left), new IntComparator(right));
+                // cutting at anchors can only cost edits
+                assertTrue(assertValidScript(differences, left, right)
+                        >= assertValidScript(sequential, left, right));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelWithoutCutsIsSequential() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LCSSettings settings = new LCSSettings();
+            settings.setForkJoinPool(pool);
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                // below twice the parallel threshold, so diffed as a whole
+                int[] left = randomSequence(random, 500 + random.nextInt(500), 2000);
+                int[] right = mutate(random, left, random.nextInt(50), 2000);
+                RangeDifference[] differences = RangeDifferencer.findDifferences(settings,
+                        new IntComparator(left), new IntComparator(right));
+                RangeDifference[] sequential = RangeDifferencer.findDifferences(new LCSSettings(),
+                        new IntComparator(left), new IntComparator(right));
+                assertArrayEquals(sequential, differences);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSegmentsFollowTheTableOfTheirComparator() throws Exception
+    {
+        IntComparator whole = new IntComparator(1, 2, 3, 4, 2, 1);
+        RangeComparatorSegment first = new RangeComparatorSegment(whole, 0, 3);
+        RangeComparatorSegment second = new RangeComparatorSegment(whole, 3, 3);
+        assertArrayEquals(new int[] {0, 1, 2}, first.getSymbols());
+        SymbolTable table = new SymbolTable();
+        // other symbols than in the table of the comparator
+        table.intern(Integer.valueOf(4));
+        first.useSymbolTable(table);
+        assertTrue(second.getSymbolTable() == table);
+        assertArrayEquals(new int[] {1, 2, 3}, first.getSymbols());
+        assertArrayEquals(new int[] {0, 2, 1}, second.getSymbols());
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(first.rangesEqual(i, second, j),
+                        first.getSymbols()[i] == second.getSymbols()[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testLazyDifferencesAreValid() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            LCSSettings settings = new LCSSettings();
+            settings.setParallelThreshold(16);
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                settings.setForkJoinPool(i % 2 == 0 ? null : pool);
+                int[] left = randomSequence(random, 500 + random.nextInt(500), 2000);
+                int[] right = mutate(random, left, random.nextInt(50), 2000);
+                List<RangeDifference> differences = new ArrayList<RangeDifference>();
+                Iterator<RangeDifference> iterator = RangeDifferencer.iterateDifferences(settings,
+                        new IntComparator(left), new IntComparator(right));
+                while (iterator.hasNext())
+                    differences.add(iterator.next());
+                assertValidScript(differences.toArray(new RangeDifference[0]), left, right);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLazyDifferencesOfShortSequences() throws Exception
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            int[] left = randomSequence(random, 200, 10);
+            int[] right = mutate(random, left, random.nextInt(20), 10);
+            RangeDifference[] expected = RangeDifferencer.findDifferences(new LCSSettings(),
+                    new IntComparator(left), new IntComparator(right));
+            Iterator<RangeDifference> iterator = RangeDifferencer.iterateDifferences(
+                    new LCSSettings(), new IntComparator(left), new IntComparator(right));
+            for (RangeDifference d : expected)
+                assertEquals(d, iterator.next());
+            assertTrue(!iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void testLazyDifferencesOfLongSequences() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            LCSSettings settings = new LCSSettings();
+            settings.setParallelThreshold(64);
+            Random random = new Random(42);
+            for (int i = 0; i < 40; i++) {
+                // the pool cuts at anchors, in findDifferences as well
+                settings.setForkJoinPool(i % 2 == 0 ? null : pool);
+                int[] left = randomSequence(random, 3000, 1000);
+                int[] right = mutate(random, left, random.nextInt(600), 1000);
+                RangeDifference[] expected = RangeDifferencer.findDifferences(settings,
+                        new IntComparator(left), new IntComparator(right));
+                List<RangeDifference> differences = new ArrayList<RangeDifference>();
+                Iterator<RangeDifference> iterator = RangeDifferencer.iterateDifferences(settings,
+                        new IntComparator(left), new IntComparator(right));
+                while (iterator.hasNext())
+                    differences.add(iterator.next());
+                assertArrayEquals(expected, differences.toArray(new RangeDifference[0]));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEditBudgetGivesCoarseValidScript() throws Exception
+    {
+        DiffEngine[] engines = {DiffEngine.MYERS, DiffEngine.LINEAR_MYERS, DiffEngine.HISTOGRAM,
+                DiffEngine.BANDED, DiffEngine.HUNT_SZYMANSKI};
+        Random random = new Random(42);
+        for (DiffEngine engine : engines) {
+            for (int i = 0; i < 100; i++) {
+                int[] left = randomSequence(random, 200, 10);
+                int[] right = mutate(random, left, 40, 10);
+                LCSSettings settings = new LCSSettings();
+                settings.setEngine(engine);
+                settings.setMaxEditDistance(4);
+                RangeDifference[] differences = RangeDifferencer.findDifferences(settings,
+                        new IntComparator(left), new IntComparator(right));
+                assertValidScript(differences, left, right);
+                assertTrue(engine + " should be approximate", settings.isApproximate());
+            }
+        }
+    }
+
+    @Test
+    public void testForkedLcsMatchesSequential() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LCSSettings parallel = new LCSSettings();
+            parallel.setForkJoinPool(pool);
+            parallel.setForkThreshold(16);
+            parallel.setTooLong(1000);
+            LCSSettings sequential = new LCSSettings();
+            sequential.setTooLong(1000);
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                int[] left = randomSequence(random, 500, 20);
+                int[] right = mutate(random, left, random.nextInt(200), 20);
+                RangeDifference[] expected = RangeComparatorLCS.findDifferences(null, sequential,
+                        new DiffBudget(sequential), new IntComparator(left),
+                        new IntComparator(right));
+                RangeDifference[] actual = RangeComparatorLCS.findDifferences(null, parallel,
+                        new DiffBudget(parallel), new IntComparator(left),
+                        new IntComparator(right));
+                assertValidScript(actual, left, right);
+                assertArrayEquals(expected, actual);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreeWayWithPoolMatchesSequential() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            LCSSettings parallel = new LCSSettings();
+            parallel.setForkJoinPool(pool);
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                int[] ancestor = randomSequence(random, 300, 50);
+                int[] left = mutate(random, ancestor, random.nextInt(20), 50);
+                int[] right = mutate(random, ancestor, random.nextInt(20), 50);
+                RangeDifference[] expected = RangeDifferencer.findDifferences(new LCSSettings(),
+                        new IntComparator(ancestor), new IntComparator(left),
+                        new IntComparator(right));
+                RangeDifference[] actual = RangeDifferencer.findDifferences(parallel,
+                        new IntComparator(ancestor), new IntComparator(left),
+                        new IntComparator(right));
+                assertArrayEquals(expected, actual);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreeWayWithIdleExecutorRunsOnCaller() throws Exception
+    {
+        // an executor that never gets to the task: the caller computes it
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        LCSSettings settings = new LCSSettings();
+        settings.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        Random random = new Random(42);
+        int[] ancestor = randomSequence(random, 300, 50);
+        int[] left = mutate(random, ancestor, 20, 50);
+        int[] right = mutate(random, ancestor, 20, 50);
+        RangeDifference[] expected = RangeDifferencer.findDifferences(new LCSSettings(),
+                new IntComparator(ancestor), new IntComparator(left),
+                new IntComparator(right));
+        RangeDifference[] actual = RangeDifferencer.findDifferences(settings,
+                new IntComparator(ancestor), new IntComparator(left),
+                new IntComparator(right));
+        assertArrayEquals(expected, actual);
+        assertEquals(1, queued.size());
+        assertTrue(((Future<?>) queued.get(0)).isDone());
+    }
+
+    @Test
+    public void testPackedDifferencesMergeInPlace() throws Exception
+    {
+        PackedDifferences packed = new PackedDifferences(new RangeDifference[] {
+                new RangeDifference(RangeDifference.CHANGE, 1, 2, 1, 0),
+                new RangeDifference(RangeDifference.CHANGE, 5, 1, 3, 2),
+                new RangeDifference(RangeDifference.CHANGE, 9, 0, 8, 1) });
+        assertEquals(3, packed.size());
+        assertEquals(5, packed.leftEnd(1));
+
+        packed.extend(0, 1);
+        packed.move(2, 1);
+        packed.truncate(2);
+        assertEquals(2, packed.size());
+        assertEquals(5, packed.rightLength(0));
+        assertEquals(4, packed.leftLength(0));
+
+        PackedDifferences.Cursor cursor = packed.cursor();
+        assertTrue(cursor.next());
+        assertEquals(1, cursor.rightStart());
+        assertTrue(cursor.next());
+        assertEquals(9, cursor.rightStart());
+        assertEquals(9, cursor.leftEnd());
+        assertTrue(!cursor.next());
+    }
+
+    @Test
+    public void testScratchBuffersAreClearedAndCapped() throws Exception
+    {
+        ScratchBuffers buffers = ScratchBuffers.get();
+        buffers.clear();
+        int[] buffer = buffers.acquire(100);
+        assertEquals(128, buffer.length);
+        buffer[99] = 1;
+        buffers.release(buffer);
+        assertEquals(128, buffers.getRetainedInts());
+        int[] reused = buffers.acquire(120);
+        assertTrue(reused == buffer);
+        assertEquals(0, reused[99]);
+
+        long max = ScratchBuffers.getMaxRetainedInts();
+        ScratchBuffers.setMaxRetainedInts(64);
+        try {
+            buffers.release(reused);
+            assertEquals(0, buffers.getRetainedInts());
+        } finally {
+            ScratchBuffers.setMaxRetainedInts(max);
+        }
+    }
+}
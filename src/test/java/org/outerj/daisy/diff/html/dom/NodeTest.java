@@ -2,7 +2,16 @@ package org.outerj.daisy.diff.html.dom;
 
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.outerj.daisy.diff.html.dom.helper.AttributesMap;
+import org.outerj.daisy.diff.html.dom.helper.CanonicalValues;
+import org.outerj.daisy.diff.html.dom.helper.LastCommonParentResult;
+import org.outerj.daisy.diff.html.modification.Modification;
 import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 
 import java.util.Arrays;
 
@@ -21,4 +30,235 @@ public class NodeTest
         intermediate.addChild(leaf);
         assertEquals(Arrays.asList(root, intermediate), leaf.getParentTree());
     }
+
+    @Test
+    public void testParentTreeIsSharedAndFollowsMoves() throws Exception
+    {
+        TagNode root = new TagNode(null, "root", new AttributesImpl());
+        TagNode middle = new TagNode(root, "middle", new AttributesImpl());
+        TagNode other = new TagNode(root, "other", new AttributesImpl());
+        TextNode first = new TextNode(middle, "a");
+        TextNode second = new TextNode(middle, "b");
+        assertSame(first.getParentTree(), second.getParentTree());
+        assertEquals(2, first.getDepth());
+
+        middle.setParent(other);
+        other.addChild(middle);
+        assertEquals(Arrays.asList(root, other, middle), first.getParentTree());
+        assertEquals(3, second.getDepth());
+    }
+
+    @Test
+    public void testTextSlicesCompareByContent() throws Exception
+    {
+        TagNode root = new TagNode(null, "root", new AttributesImpl());
+        TextBuffer buffer = new TextBuffer();
+        for (char c : "a\nbba b".toCharArray()) {
+            buffer.append(c);
+        }
+        TextNode first = new TextNode(root, buffer, 0, 3);
+        TextNode second = new TextNode(root, "a bb");
+        assertEquals("a\nb", first.getText());
+        assertTrue(first.isSameText(new TextNode(root, "a b")));
+        assertEquals(new TextNode(root, "a b").getSymbolKey(), first.getSymbolKey());
+        assertEquals(second.getTextSlice().subSequence(2, 4), new TextSlice(buffer, 2, 2));
+        assertEquals("bb".hashCode(), new TextSlice(buffer, 2, 2).hashCode());
+    }
+
+    @Test
+    public void testUnchangedTextSharesNoneModification() throws Exception
+    {
+        TagNode root = new TagNode(null, "root", new AttributesImpl());
+        TextNode text = new TextNode(root, "a");
+        assertSame(Modification.NONE, text.getModification());
+        assertSame(Modification.NONE, new WhiteSpaceNode(root, " ", text).getModification());
+        try {
+            text.getModification().setFirstOfID(true);
+            fail("NONE must not be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static void parse(DefaultHandler handler) throws Exception
+    {
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "class", "class", "CDATA", "note");
+        char[] text = "Hello, big world (again)".toCharArray();
+        handler.startDocument();
+        handler.startElement("", "body", "body", new AttributesImpl());
+        handler.startElement("", "p", "p", attributes);
+        handler.characters(text, 0, 10);
+        handler.startElement("", "b", "b", new AttributesImpl());
+        handler.characters(text, 10, 4);
+        handler.endElement("", "b", "b");
+        handler.characters(text, 14, text.length - 14);
+        handler.endElement("", "p", "p");
+        handler.startElement("", "p", "p", attributes);
+        handler.characters(text, 0, 5);
+        handler.endElement("", "p", "p");
+        handler.endElement("", "body", "body");
+        handler.endDocument();
+    }
+
+    @Test
+    public void testCompactTreeBuildsEqualNodes() throws Exception
+    {
+        DomTreeBuilder nodes = new DomTreeBuilder();
+        parse(nodes);
+        CompactDomTreeBuilder compact = new CompactDomTreeBuilder();
+        parse(compact);
+        CompactDomTree tree = compact.getTree();
+        int firstP = tree.getFirstChild(0);
+        int secondP = tree.getNextSibling(firstP);
+        assertEquals("p", tree.getQName(secondP));
+        assertSame(tree.getAttributes(firstP), tree.getAttributes(secondP));
+        DomTree copy = tree.createDomTree();
+        assertNotSame(copy.getBodyNode(), tree.createDomTree().getBodyNode());
+        assertEquals(nodes.getTextNodes().size(), copy.getTextNodes().size());
+        for (int i = 0; i < nodes.getTextNodes().size(); i++) {
+            TextNode expected = nodes.getTextNodes().get(i);
+            TextNode actual = copy.getTextNodes().get(i);
+            assertEquals(expected.getClass(), actual.getClass());
+            assertEquals(expected.getText(), actual.getText());
+            assertEquals(expected.isWhiteBefore(), actual.isWhiteBefore());
+            assertEquals(expected.isWhiteAfter(), actual.isWhiteAfter());
+            assertEquals(expected.getParent().getQName(), actual.getParent().getQName());
+        }
+    }
+
+    @Test
+    public void testLastCommonParentAcrossTrees() throws Exception
+    {
+        AttributesImpl style = new AttributesImpl();
+        style.addAttribute("", "style", "style", "CDATA", "a: 1; b: 2");
+        AttributesImpl sameStyle = new AttributesImpl();
+        sameStyle.addAttribute("", "STYLE", "STYLE", "CDATA", "b:2;a:1");
+        TagNode oldRoot = new TagNode(null, "body", new AttributesImpl());
+        TagNode oldDiv = new TagNode(oldRoot, "div", style);
+        TagNode oldP = new TagNode(oldDiv, "p", new AttributesImpl());
+        TextNode oldText = new TextNode(new TagNode(oldP, "b", new AttributesImpl()), "a");
+        TagNode newRoot = new TagNode(null, "body", new AttributesImpl());
+        TagNode newDiv = new TagNode(newRoot, "DIV", sameStyle);
+        TagNode newP = new TagNode(newDiv, "p", new AttributesImpl());
+        TextNode newText = new TextNode(new TagNode(newP, "i", new AttributesImpl()), "a");
+        new TextNode(newP, "b");
+
+        LastCommonParentResult result = newText.getLastCommonParent(oldText);
+        assertSame(newP, result.getLastCommonParent());
+        assertEquals(2, result.getLastCommonParentDepth());
+        assertTrue(result.isSplittingNeeded());
+        assertEquals(0, result.getIndexInLastCommonParent());
+
+        // within one tree, only the same tags are common
+        TextNode sibling = new TextNode(new TagNode(oldDiv, "p", new AttributesImpl()), "b");
+        result = sibling.getLastCommonParent(oldText);
+        assertSame(oldDiv, result.getLastCommonParent());
+        assertEquals(1, result.getIndexInLastCommonParent());
+    }
+
+    @Test
+    public void testIndexOfFollowsChangesOfChildren() throws Exception
+    {
+        TagNode root = new TagNode(null, "root", new AttributesImpl());
+        TagNode list = new TagNode(root, "ul", new AttributesImpl());
+        TagNode first = new TagNode(list, "li", new AttributesImpl());
+        TextNode a = new TextNode(first, "a");
+        TextNode b = new TextNode(first, "b");
+        TextNode c = new TextNode(first, "c");
+        TagNode second = new TagNode(list, "li", new AttributesImpl());
+        assertEquals(1, list.getIndexOf(second));
+        assertEquals(2, first.getIndexOf(c));
+
+        TextNode inserted = new TextNode(null, "x");
+        inserted.setParent(first);
+        first.addChild(0, inserted);
+        assertEquals(0, first.getIndexOf(inserted));
+        assertEquals(3, first.getIndexOf(c));
+
+        assertTrue(first.splitUntill(list, a, true));
+        assertEquals(3, list.getNbChildren());
+        assertSame(second, list.getChild(2));
+        assertEquals(2, list.getIndexOf(second));
+        TagNode left = (TagNode) list.getChild(0);
+        TagNode right = (TagNode) list.getChild(1);
+        assertEquals(1, left.getIndexOf(a));
+        assertEquals(0, right.getIndexOf(b));
+        assertEquals(-1, left.getIndexOf(b));
+    }
+
+    @Test
+    public void testSimilarTagsHaveEqualFingerprints() throws Exception
+    {
+        AttributesImpl attrs = new AttributesImpl();
+        attrs.addAttribute("", "class", "class", "CDATA", "b  a");
+        attrs.addAttribute("", "id", "id", "CDATA", "x");
+        AttributesImpl sameAttrs = new AttributesImpl();
+        sameAttrs.addAttribute("", "ID", "ID", "CDATA", "x");
+        sameAttrs.addAttribute("", "class", "class", "CDATA", "a b");
+        AttributesImpl otherAttrs = new AttributesImpl();
+        otherAttrs.addAttribute("", "id", "id", "CDATA", "y");
+        otherAttrs.addAttribute("", "class", "class", "CDATA", "a b");
+        TagNode tag = new TagNode(new TagNode(null, "body", new AttributesImpl()), "div", attrs);
+        TagNode same = new TagNode(new TagNode(null, "body", new AttributesImpl()), "DIV", sameAttrs);
+        TagNode other = new TagNode(same.getParent(), "div", otherAttrs);
+
+        assertEquals(tag.getFingerprint(), same.getFingerprint());
+        assertEquals(tag.hashCode(), same.hashCode());
+        assertTrue(tag.isSameTag(same));
+        assertTrue(same.isSameTag(tag));
+        assertTrue(!tag.isSameTag(other));
+        assertTrue(!same.isSameTag(other));
+    }
+
+    @Test
+    public void testEquivalentStylesShareCanonicalForm() throws Exception
+    {
+        CanonicalValues styles = CanonicalValues.STYLES;
+        String canonical = styles.get("font-size : 16pt; margin-left:50px;");
+        assertSame(canonical, styles.get("\tmargin-left: 50px ; ;font-size:16pt"));
+        long hits = styles.getHits();
+        assertSame(canonical, styles.get("font-size : 16pt; margin-left:50px;"));
+        assertEquals(hits + 1, styles.getHits());
+        assertTrue(styles.getHitRate() > 0);
+
+        assertTrue(AttributesMap.equivalentStyles("a:1;b:2", "b : 2; a : 1"));
+        assertTrue(!AttributesMap.equivalentStyles("a:1;b:2", "a:1"));
+        assertTrue(AttributesMap.equivalentStyles(null, null));
+        assertTrue(!AttributesMap.equivalentStyles("a:1", null));
+        assertTrue(AttributesMap.equivalentStyles(";", " ;; "));
+        assertTrue(!AttributesMap.equivalentStyles(";", ""));
+        assertTrue(AttributesMap.sameClassSet(" b\ta ", "a  b"));
+        assertTrue(!AttributesMap.sameClassSet("a b", "a B"));
+    }
+
+    @Test
+    public void testIndexOfRepeatedWordsIsTheirOwn() throws Exception
+    {
+        TagNode root = new TagNode(null, "root", new AttributesImpl());
+        TagNode paragraph = new TagNode(root, "p", new AttributesImpl());
+        TextNode first = new TextNode(paragraph, "the");
+        new TextNode(paragraph, " ");
+        TextNode second = new TextNode(paragraph, "the");
+        TextNode inserted = new TextNode(null, "the");
+        inserted.setParent(paragraph);
+        paragraph.addChild(1, inserted);
+
+        for (int i = 0; i < paragraph.getNbChildren(); i++) {
+            Node child = paragraph.getChild(i);
+            // the first child equal to it, as List.indexOf finds
+            int firstEqual = 0;
+            while (!child.equals(paragraph.getChild(firstEqual))) {
+                firstEqual++;
+            }
+            assertEquals(firstEqual, paragraph.getIndexOf(child));
+            assertEquals(i, paragraph.getIndexOf(child));
+        }
+        assertEquals(0, paragraph.getIndexOf(first));
+        assertEquals(3, paragraph.getIndexOf(second));
+
+        LastCommonParentResult result = second.getLastCommonParent(first);
+        assertSame(paragraph, result.getLastCommonParent());
+        assertEquals(3, result.getIndexInLastCommonParent());
+    }
 }